@@ -0,0 +1,66 @@
+package bench;
+
+import common.Batch;
+import my_version.BankManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * deposit/withdraw throughput through applyBatch for different batch sizes
+ * every invocation applies OPS ops, split into batches of batchSize, so scores are per op
+ *
+ * @author SeanMcGrath
+ */
+@State(Scope.Benchmark)
+public class BatchBenchMark {
+
+    private static final int OPS = 256;
+
+    @Param({"1", "16", "64", "256"})
+    public int batchSize;
+
+    @Param({"64"})
+    public int stripes;
+
+    private BankManager bm;
+    private int accounts;
+
+    @State(Scope.Thread)
+    public static class Buffer {
+        final Batch batch = new Batch(OPS);
+    }
+
+    @Setup
+    public void setup() {
+        bm = new BankManager(stripes);
+        bm.initialize();
+        accounts = bm.getAccounts();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Threads(Threads.MAX)
+    @OperationsPerInvocation(OPS)
+    public int applyBatch(Buffer buffer) {
+        Batch batch = buffer.batch;
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        int applied = 0;
+        for (int done = 0; done < OPS; done += batchSize) {
+            batch.clear();
+            for (int i = 0; i < batchSize; i++) {
+                batch.add(r.nextInt(accounts), r.nextBoolean() ? 1 : -1);
+            }
+            applied += bm.applyBatch(batch);
+        }
+        return applied;
+    }
+}
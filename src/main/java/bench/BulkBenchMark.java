@@ -0,0 +1,157 @@
+package bench;
+
+import common.Ledger;
+import common.Workload;
+import net.Ledgers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * bulk jobs over a million accounts
+ * interest and statement time one job for each size of the bulk pool, how far it scales with cores
+ * online times single deposits while a bulk thread runs interest jobs back to back, or while nothing else runs
+ * run with: java -cp ... org.openjdk.jmh.Main BulkBenchMark
+ *
+ * @author SeanMcGrath
+ */
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BulkBenchMark {
+
+    private static final int ACCOUNTS = 1_000_000;
+
+    /**
+     * a ledger and a bulk pool of the given size
+     */
+    @State(Scope.Benchmark)
+    public static class Job {
+        @Param({"seqlock", "lockfree", "jdk", "cells"})
+        public String implementation;
+
+        @Param({"1", "2", "4", "8"})
+        public int parallelism;
+
+        Ledger ledger;
+        ForkJoinPool pool;
+
+        @Setup
+        public void setup() {
+            ledger = bank(implementation);
+            pool = new ForkJoinPool(parallelism);
+            setBulkPool(ledger, pool);
+        }
+
+        @TearDown
+        public void tearDown() {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * a ledger with or without a bulk thread running interest jobs in the background
+     */
+    @State(Scope.Benchmark)
+    public static class Online {
+        @Param({"seqlock", "lockfree", "jdk", "cells"})
+        public String implementation;
+
+        @Param({"off", "on"})
+        public String bulk;
+
+        Ledger ledger;
+        ForkJoinPool pool;
+        Thread bulkThread;
+        volatile boolean running = true;
+        long jobs;
+
+        @Setup
+        public void setup() {
+            ledger = bank(implementation);
+            //half the cores for the bulk pool, the rest for the online threads
+            pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+            setBulkPool(ledger, pool);
+            if (bulk.equals("on")) {
+                bulkThread = new Thread(() -> {
+                    while (running) {
+                        applyInterest(ledger, 1);
+                        jobs++;
+                    }
+                }, "bulk");
+                bulkThread.start();
+            }
+        }
+
+        @TearDown
+        public void tearDown() throws InterruptedException {
+            running = false;
+            if (bulkThread != null) {
+                bulkThread.join();
+                System.out.println("\n" + jobs + " interest jobs ran alongside");
+            }
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long interest(Job job) {
+        return applyInterest(job.ledger, 1);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long statement(Job job) {
+        Ledger l = job.ledger;
+        if (l instanceof my_version.BankManager) {
+            return ((my_version.BankManager) l).aggregate(0, b -> b, Long::sum);
+        }
+        return ((jdk_version.BankManager) l).aggregate(0, b -> b, Long::sum);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Threads(2)
+    public void online(Online online) {
+        online.ledger.deposit(ThreadLocalRandom.current().nextInt(ACCOUNTS), 1);
+    }
+
+    private static Ledger bank(String implementation) {
+        Workload workload = new Workload();
+        workload.setAccounts(ACCOUNTS);
+        return Ledgers.create(implementation, workload);
+    }
+
+    private static void setBulkPool(Ledger l, ForkJoinPool pool) {
+        if (l instanceof my_version.BankManager) {
+            ((my_version.BankManager) l).setBulkPool(pool);
+        } else {
+            ((jdk_version.BankManager) l).setBulkPool(pool);
+        }
+    }
+
+    private static long applyInterest(Ledger l, int rateBps) {
+        if (l instanceof my_version.BankManager) {
+            return ((my_version.BankManager) l).applyInterest(rateBps);
+        }
+        return ((jdk_version.BankManager) l).applyInterest(rateBps);
+    }
+}
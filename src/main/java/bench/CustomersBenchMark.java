@@ -0,0 +1,109 @@
+package bench;
+
+import common.Customers;
+import common.Workload;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * on-person money kept as one Customers column against the old object per user
+ * setup prints the heap each layout takes, the benchmarks update random wallets and sum all of them
+ * 50M objects need about 2.2GB of heap, hence the fork's -Xmx
+ *
+ * @author SeanMcGrath
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = {"-Xmx6g"})
+public class CustomersBenchMark {
+
+    @Param({"1000000", "10000000", "50000000"})
+    public int customers;
+
+    @Param({"columnar", "objects"})
+    public String layout;
+
+    private Customers columns;
+    private Wallet[] wallets;
+
+    /**
+     * what every user used to be: its account number and an AtomicInteger of money, reached through a reference
+     */
+    private static final class Wallet {
+        final long accountNumber;
+        final AtomicInteger money;
+
+        Wallet(long accountNumber, int money) {
+            this.accountNumber = accountNumber;
+            this.money = new AtomicInteger(money);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        long before = usedHeap();
+        if (layout.equals("columnar")) {
+            columns = new Customers(customers);
+            columns.open(new Workload().newGenerator(Workload.WALLETS));
+        } else {
+            wallets = new Wallet[customers];
+            for (int i = 0; i < customers; i++) {
+                wallets[i] = new Wallet(i, ThreadLocalRandom.current().nextInt(0, 100000));
+            }
+        }
+        long bytes = usedHeap() - before;
+        System.out.printf("%n%s, %d customers: %.1f MB, %.1f bytes per customer%n",
+                layout, customers, bytes / 1e6, (double) bytes / customers);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * what a client does to its user, random users so the layouts are compared on cache misses
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Threads(Threads.MAX)
+    public long update() {
+        int user = ThreadLocalRandom.current().nextInt(customers);
+        if (columns != null) {
+            return columns.addToWallet(user, 1);
+        }
+        return wallets[user].money.addAndGet(1);
+    }
+
+    /**
+     * what an audit does, every wallet in order
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long total() {
+        if (columns != null) {
+            return columns.total();
+        }
+        long total = 0;
+        for (Wallet w : wallets) {
+            total += w.money.get();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,91 @@
+package bench;
+
+import common.AccountCells;
+import common.Ledger;
+import common.Workload;
+import net.Ledgers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * every thread hammers the same few accounts, the worst case for a per-account CAS
+ * depositWithdraw runs on each ledger, holdCapture on AccountCells alone
+ * add -prof gc to check that nothing is allocated per op
+ * run with: java -cp ... org.openjdk.jmh.Main HotAccountBenchMark
+ *
+ * @author SeanMcGrath
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HotAccountBenchMark {
+
+    /**
+     * a whole ledger, only the first hot accounts are used
+     */
+    @State(Scope.Benchmark)
+    public static class Bank {
+        @Param({"seqlock", "lockfree", "jdk", "cells"})
+        public String implementation;
+
+        @Param({"1", "16"})
+        public int hot;
+
+        Ledger ledger;
+
+        @Setup
+        public void setup() {
+            ledger = Ledgers.create(implementation, new Workload());
+        }
+    }
+
+    /**
+     * just the hot accounts, for the holds
+     */
+    @State(Scope.Benchmark)
+    public static class Cells {
+        @Param({"1", "16"})
+        public int hot;
+
+        AccountCells cells;
+
+        @Setup
+        public void setup() {
+            cells = new AccountCells(hot);
+            for (int a = 0; a < hot; a++) {
+                cells.put(a, 1000000);
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean depositWithdraw(Bank bank) {
+        int a = ThreadLocalRandom.current().nextInt(bank.hot);
+        bank.ledger.deposit(a, 1);
+        return bank.ledger.withdraw(a, 1);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean holdCapture(Cells c) {
+        int a = ThreadLocalRandom.current().nextInt(c.hot);
+        c.cells.addAndGet(a, 1);
+        return c.cells.hold(a, 1) && c.cells.capture(a, 1);
+    }
+}
@@ -0,0 +1,39 @@
+package bench;
+
+import common.ExecutorMode;
+import jdk_version.BankManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * whole simulator runs on each executor mode, with and without simulated database latency
+ * VIRTUAL needs a JDK 21+ runtime, on older ones those runs fail
+ *
+ * @author SeanMcGrath
+ */
+@State(Scope.Benchmark)
+public class JdkExecutorBenchMark {
+
+    @Param({"CACHED", "FORK_JOIN", "VIRTUAL"})
+    public ExecutorMode mode;
+
+    @Param({"0", "1000"})
+    public long ioLatencyMicros;
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void run() {
+        BankManager bm = new BankManager();
+        bm.setExecutorMode(mode);
+        bm.setIoLatency(ioLatencyMicros);
+        bm.run();
+    }
+}
@@ -0,0 +1,46 @@
+package bench;
+
+import jdk_version.BankManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * deposit/withdraw throughput straight against the ledger, 8 threads
+ * run with -prof gc to see the allocation rate per operation
+ *
+ * @author SeanMcGrath
+ */
+@State(Scope.Benchmark)
+public class LedgerBenchMark {
+
+    private BankManager bm;
+    private int accounts;
+
+    @Setup
+    public void setup() {
+        bm = new BankManager();
+        bm.initialize();
+        accounts = bm.getAccounts();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Threads(8)
+    public void deposit() {
+        bm.deposit(ThreadLocalRandom.current().nextInt(accounts), 1);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Threads(8)
+    public boolean withdraw() {
+        return bm.withdraw(ThreadLocalRandom.current().nextInt(accounts), 1);
+    }
+}
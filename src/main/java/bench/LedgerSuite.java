@@ -0,0 +1,170 @@
+package bench;
+
+import common.Ledger;
+import common.Workload;
+import net.Ledgers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ledger operations on their own, against a ledger that is set up once per trial
+ * average time gives the mean cost of an operation, sample time gives the percentiles (p99 and up)
+ * run main for the thread sweep, results go to target/ledger-suite-*.json
+ *
+ * @author SeanMcGrath
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LedgerSuite {
+
+    private static final int[] THREADS = {1, 2, 4, 8};
+
+    @Param({"seqlock", "lockfree", "jdk", "ring"})
+    public String implementation;
+
+    @Param({"500", "100000", "1000000"})
+    public int accounts;
+
+    //task mix of mixed, readHeavy is 90% balance reads
+    @Param({"default", "readHeavy"})
+    public String mix;
+
+    Ledger ledger;
+    Workload workload;
+
+    /**
+     * account and task stream of one benchmark thread
+     */
+    @State(Scope.Thread)
+    public static class Ops {
+        Workload.Generator generator;
+
+        @Setup(Level.Trial)
+        public void setup(LedgerSuite suite) {
+            generator = suite.workload.newGenerator(Thread.currentThread().getId());
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        workload = new Workload();
+        workload.setAccounts(accounts);
+        if (mix.equals("readHeavy")) {
+            workload.setReadHeavy();
+        }
+        ledger = Ledgers.create(implementation, workload);
+    }
+
+    @Benchmark
+    public void deposit(Ops ops) {
+        ledger.deposit(ops.generator.nextAccount(), 1);
+    }
+
+    @Benchmark
+    public boolean withdraw(Ops ops) {
+        return ledger.withdraw(ops.generator.nextAccount(), 1);
+    }
+
+    @Benchmark
+    public int balance(Ops ops) {
+        return ledger.getBalance(ops.generator.nextAccount());
+    }
+
+    @Benchmark
+    public boolean transfer(Ops ops) {
+        return ledger.transfer(ops.generator.nextAccount(), ops.generator.nextAccount(), 1);
+    }
+
+    /**
+     * the workload's task mix, PAY has no bank side so it reads the balance too
+     */
+    @Benchmark
+    public int mixed(Ops ops) {
+        Workload.Generator g = ops.generator;
+        switch (g.nextTask()) {
+            case Workload.WITHDRAW:
+                return ledger.withdraw(g.nextAccount(), 1) ? 1 : 0;
+            case Workload.DEPOSIT:
+                ledger.deposit(g.nextAccount(), 1);
+                return 1;
+            case Workload.TRANSFER:
+                return ledger.transfer(g.nextAccount(), g.nextAccount(), 1) ? 1 : 0;
+            default:
+                return ledger.getBalance(g.nextAccount());
+        }
+    }
+
+    //one writer against readers on the same ledger, main sweeps the number of readers
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public void writer(Ops ops) {
+        ledger.deposit(ops.generator.nextAccount(), 1);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public int reader(Ops ops) {
+        return ledger.getBalance(ops.generator.nextAccount());
+    }
+
+    /**
+     * runs the single operation benchmarks at each thread count, then the reader/writer group with 1 writer
+     * and each thread count of readers, read throughput should grow with readers as long as there are cores
+     */
+    public static void main(String[] args) throws RunnerException {
+        String single = LedgerSuite.class.getName() + "\\.(deposit|withdraw|balance|transfer)$";
+        String mixed = LedgerSuite.class.getName() + "\\.mixed$";
+        for (int threads : THREADS) {
+            Options opt = new OptionsBuilder()
+                    .include(single)
+                    .threads(threads)
+                    .param("mix", "default")//only mixed uses the mix
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("target/ledger-suite-" + threads + "t.json")
+                    .build();
+            new Runner(opt).run();
+            Options mixes = new OptionsBuilder()
+                    .include(mixed)
+                    .threads(threads)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("target/ledger-suite-mixed-" + threads + "t.json")
+                    .build();
+            new Runner(mixes).run();
+        }
+        for (int readers : THREADS) {
+            Options group = new OptionsBuilder()
+                    .include(LedgerSuite.class.getName() + "\\.readWrite")
+                    .threadGroups(1, readers)
+                    .param("mix", "default")//the group does not use the mix
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("target/ledger-suite-readwrite-" + readers + "r.json")
+                    .build();
+            new Runner(group).run();
+        }
+    }
+}
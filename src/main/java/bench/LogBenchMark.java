@@ -0,0 +1,102 @@
+package bench;
+
+import common.Ledger;
+import common.TransactionLog;
+import common.Workload;
+import net.Ledgers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * cost of the write-ahead log on deposits and transfers, per durability level
+ * "off" is the ledger without a log, GROUP_SYNC waits for the force so it shows what group commit buys
+ * the log goes to a temp directory that is deleted after the trial
+ *
+ * @author SeanMcGrath
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class LogBenchMark {
+
+    @Param({"seqlock", "jdk"})
+    public String implementation;
+
+    @Param({"off", "NONE", "ASYNC", "GROUP_SYNC"})
+    public String durability;
+
+    Ledger ledger;
+    Workload workload;
+    TransactionLog log;
+    Path dir;
+
+    @State(Scope.Thread)
+    public static class Ops {
+        Workload.Generator generator;
+
+        @Setup(Level.Trial)
+        public void setup(LogBenchMark bench) {
+            generator = bench.workload.newGenerator(Thread.currentThread().getId());
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        workload = new Workload();
+        workload.setAccounts(100000);
+        ledger = Ledgers.create(implementation, workload);
+        if (!durability.equals("off")) {
+            dir = Files.createTempDirectory("wal-bench");
+            log = new TransactionLog(dir, TransactionLog.Durability.valueOf(durability));
+            if (ledger instanceof my_version.BankManager) {
+                ((my_version.BankManager) ledger).setTransactionLog(log);
+            } else {
+                ((jdk_version.BankManager) ledger).setTransactionLog(log);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (log == null) {
+            return;
+        }
+        log.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void deposit(Ops ops) {
+        ledger.deposit(ops.generator.nextAccount(), 1);
+    }
+
+    @Benchmark
+    public boolean transfer(Ops ops) {
+        return ledger.transfer(ops.generator.nextAccount(), ops.generator.nextAccount(), 1);
+    }
+}
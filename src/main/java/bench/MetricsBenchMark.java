@@ -0,0 +1,86 @@
+package bench;
+
+import common.BankMetrics;
+import common.Ledger;
+import common.Workload;
+import net.Ledgers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * cost of BankMetrics on the ledger ops, compare each metrics setting against off
+ * sampled times one op in BankMetrics.DEFAULT_SAMPLE_EVERY, every times all of them
+ * run with: java -cp ... org.openjdk.jmh.Main MetricsBenchMark
+ *
+ * @author SeanMcGrath
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchMark {
+
+    @Param({"seqlock", "lockfree", "jdk"})
+    public String implementation;
+
+    @Param({"off", "sampled", "every"})
+    public String metrics;
+
+    Ledger ledger;
+    Workload workload;
+
+    /**
+     * account stream of one benchmark thread
+     */
+    @State(Scope.Thread)
+    public static class Ops {
+        Workload.Generator generator;
+
+        @Setup(Level.Trial)
+        public void setup(MetricsBenchMark suite) {
+            generator = suite.workload.newGenerator(Thread.currentThread().getId());
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        workload = new Workload();
+        ledger = Ledgers.create(implementation, workload);
+        BankMetrics m = metrics.equals("off") ? null
+                : new BankMetrics(metrics.equals("every") ? 1 : BankMetrics.DEFAULT_SAMPLE_EVERY);
+        if (ledger instanceof my_version.BankManager) {
+            ((my_version.BankManager) ledger).setMetrics(m);
+        } else {
+            ((jdk_version.BankManager) ledger).setMetrics(m);
+        }
+    }
+
+    @Benchmark
+    public void deposit(Ops ops) {
+        ledger.deposit(ops.generator.nextAccount(), 1);
+    }
+
+    @Benchmark
+    public boolean withdraw(Ops ops) {
+        return ledger.withdraw(ops.generator.nextAccount(), 1);
+    }
+
+    @Benchmark
+    public int balance(Ops ops) {
+        return ledger.getBalance(ops.generator.nextAccount());
+    }
+}
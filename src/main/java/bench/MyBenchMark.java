@@ -1,5 +1,6 @@
-package jdk_version;
+package bench;
 
+import my_version.BankManager;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
 import org.openjdk.jmh.annotations.Mode;
@@ -10,7 +11,7 @@ import java.io.IOException;
 /**
  * @author SeanMcGrath
  */
-public class BenchMark {
+public class MyBenchMark{
     public static void main(String[] args) throws IOException, RunnerException {
         org.openjdk.jmh.Main.main(args);
     }
@@ -18,7 +19,6 @@ public class BenchMark {
     @Benchmark
     @BenchmarkMode(Mode.Throughput)
     public void init() {
-
         BankManager bm = new BankManager();
         bm.run();
     }
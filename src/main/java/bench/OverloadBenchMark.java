@@ -0,0 +1,117 @@
+package bench;
+
+import common.Admission;
+import common.LatencyHistogram;
+import common.Ledger;
+import common.Workload;
+import net.Ledgers;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * sustained overload: ops arrive on a fixed schedule faster than the workers can serve them,
+ * every op is a deposit followed by a simulated io wait, so capacity is workers / service time
+ * latency runs from when an op was due to arrive to when it finished, so a producer held up by BLOCK
+ * or CALLER_RUNS is charged for the ops it could not send on time
+ * unbounded queues everything and its latency grows for as long as the overload lasts,
+ * the admission policies keep it bounded, SHED and adaptive by refusing what does not fit
+ * usage: OverloadBenchMark [workers] [serviceMicros] [overload] [seconds]
+ *
+ * @author SeanMcGrath
+ */
+public class OverloadBenchMark {
+
+    private static final String[] SETUPS = {"unbounded", "block", "shed", "caller-runs", "adaptive-shed"};
+
+    /**
+     * @param setup   - one of SETUPS
+     * @param workers - worker threads
+     * @return - the admission of the setup, null for unbounded
+     */
+    static Admission admission(String setup, int workers) {
+        switch (setup) {
+            case "unbounded":
+                return null;
+            case "block":
+                return new Admission(Admission.Policy.BLOCK, 2 * workers);
+            case "shed":
+                return new Admission(Admission.Policy.SHED, 2 * workers);
+            case "caller-runs":
+                return new Admission(Admission.Policy.CALLER_RUNS, 2 * workers);
+            case "adaptive-shed":
+                return new Admission(Admission.Policy.SHED, 2 * workers, workers, 64 * workers);
+            default:
+                throw new IllegalArgumentException("unknown setup " + setup);
+        }
+    }
+
+    /**
+     * runs one setup and prints what it did
+     */
+    static void run(String setup, Ledger ledger, int workers, long serviceNanos, double overload, long nanos) {
+        ExecutorService pool = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        Admission admission = admission(setup, workers);
+        LatencyHistogram latency = new LatencyHistogram();
+        LongAdder done = new LongAdder();
+        long interval = (long) (serviceNanos / workers / overload);//between two arrivals
+        int accounts = ledger.getAccounts();
+        long start = System.nanoTime();
+        long due = start;
+        long sent = 0;
+        while (due - start < nanos) {
+            long now = System.nanoTime();
+            if (now < due) {
+                LockSupport.parkNanos(due - now);
+                continue;
+            }
+            long arrival = due;
+            Runnable op = () -> {
+                ledger.deposit(ThreadLocalRandom.current().nextInt(accounts), 1);
+                LockSupport.parkNanos(serviceNanos);
+                latency.record(System.nanoTime() - arrival);
+                done.increment();
+            };
+            if (admission == null) {
+                pool.execute(op);
+            } else {
+                admission.execute(pool, op);
+            }
+            sent++;
+            due += interval;
+        }
+        long sending = System.nanoTime() - start;
+        pool.shutdown();
+        try {
+            pool.awaitTermination(10, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-13s sent %d in %.1f s, done %d, %.0f ops/s, shed %d, latency ms p50 %.2f p99 %.2f max %.2f%s%n",
+                setup, sent, sending / 1e9, done.sum(), done.sum() * 1e9 / elapsed,
+                admission == null ? 0 : admission.getShed(),
+                latency.percentile(50) / 1e6, latency.percentile(99) / 1e6, latency.getMax() / 1e6,
+                admission == null ? "" : ", " + admission);
+    }
+
+    public static void main(String[] args) {
+        int workers = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        long serviceNanos = TimeUnit.MICROSECONDS.toNanos(args.length > 1 ? Long.parseLong(args[1]) : 200);
+        double overload = args.length > 2 ? Double.parseDouble(args[2]) : 2.0;
+        long nanos = TimeUnit.SECONDS.toNanos(args.length > 3 ? Long.parseLong(args[3]) : 5);
+        Workload workload = new Workload();
+        workload.setAccounts(100000);
+        Ledger ledger = Ledgers.create("jdk", workload);
+        System.out.printf("%d workers, %d us per op, arrivals at %.1fx capacity (%.0f ops/s)%n", workers,
+                serviceNanos / 1000, overload, overload * workers * 1e9 / serviceNanos);
+        for (String setup : SETUPS) {
+            run(setup, ledger, workers, serviceNanos, overload, nanos);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package bench;
+
+import common.Affinity;
+import common.Ledger;
+import common.PartitionedExecutor;
+import common.Workload;
+import net.Ledgers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * the same ops on the same ledger run by a shared pool, where any thread touches any account,
+ * or by a PartitionedExecutor, where an account is only touched by the worker owning it, pinned or not
+ * one thread per allowed cpu either way, every invocation hands out a batch of ops and waits for all of them
+ * ops count themselves done on a padded counter of their partition and only the last op of a partition signals,
+ * so partitioned workers share no cache line with each other or the waiter while they run
+ * add -prof perfnorm for cache misses per op, the difference shows on a many core or multi socket box,
+ * launch with taskset -c to pick the cpus, e.g. one socket against both
+ * run with: java -cp ... org.openjdk.jmh.Main PartitionBenchMark -prof perfnorm
+ *
+ * @author SeanMcGrath
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PartitionBenchMark {
+
+    private static final int ACCOUNTS = 1_000_000;
+    private static final int BATCH = 10_000;
+    private static final int PAD = 16;//longs per done counter, keeps counters 128 bytes apart
+
+    @Param({"seqlock", "jdk", "cells"})
+    public String implementation;
+
+    @Param({"shared", "partitioned", "pinned"})
+    public String executor;
+
+    Ledger ledger;
+    ExecutorService pool;
+    PartitionedExecutor partitioned;//pool, when partitioned
+    private int threads;
+    private final int[] accounts = new int[BATCH];
+    private final boolean[] deposits = new boolean[BATCH];
+    private int[] expected;//ops of the batch per partition
+    private AtomicLongArray done;//ops finished per partition, at p * PAD
+    private final AtomicInteger partitionsLeft = new AtomicInteger();
+    private volatile Thread waiter;
+
+    @Setup
+    public void setup() {
+        Workload workload = new Workload();
+        workload.setAccounts(ACCOUNTS);
+        ledger = Ledgers.create(implementation, workload);
+        threads = Affinity.allowedCpus().length;
+        expected = new int[threads];
+        done = new AtomicLongArray(threads * PAD);
+        if (executor.equals("shared")) {
+            pool = new ForkJoinPool(threads);
+        } else {
+            partitioned = new PartitionedExecutor(threads, executor.equals("pinned"));
+            pool = partitioned;
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void ops() {
+        waiter = Thread.currentThread();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Arrays.fill(expected, 0);
+        for (int i = 0; i < BATCH; i++) {
+            accounts[i] = random.nextInt(ACCOUNTS);
+            deposits[i] = random.nextBoolean();
+            expected[PartitionedExecutor.partitionOf(accounts[i], threads)]++;
+        }
+        int busy = 0;
+        for (int p = 0; p < threads; p++) {
+            done.set(p * PAD, 0);
+            busy += expected[p] > 0 ? 1 : 0;
+        }
+        partitionsLeft.set(busy);
+        for (int i = 0; i < BATCH; i++) {
+            int account = accounts[i];
+            boolean deposit = deposits[i];
+            int p = PartitionedExecutor.partitionOf(account, threads);
+            Runnable op = () -> {
+                if (deposit) {
+                    ledger.deposit(account, 1);
+                } else {
+                    ledger.withdraw(account, 1);
+                }
+                if (done.incrementAndGet(p * PAD) == expected[p] && partitionsLeft.decrementAndGet() == 0) {
+                    LockSupport.unpark(waiter);
+                }
+            };
+            if (partitioned != null) {
+                partitioned.execute(account, op);
+            } else {
+                pool.execute(op);
+            }
+        }
+        while (partitionsLeft.get() > 0) {
+            LockSupport.park(this);
+        }
+    }
+}
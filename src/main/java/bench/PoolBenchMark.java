@@ -0,0 +1,43 @@
+package bench;
+
+import common.FreeAccountPool;
+import common.Workload;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * claim+release of a free user for different numbers of simulated users
+ * the old runningTasks scan was O(users) per claim, the pool should stay flat
+ *
+ * @author SeanMcGrath
+ */
+@State(Scope.Benchmark)
+public class PoolBenchMark {
+
+    @Param({"500", "100000", "1000000", "10000000"})
+    public int users;
+
+    private FreeAccountPool pool;
+
+    @Setup
+    public void setup() {
+        pool = new FreeAccountPool(users, new Workload().newGenerator(Workload.SHUFFLE));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Threads(Threads.MAX)
+    public int claimRelease() {
+        int user = pool.claim();
+        if (user != -1) {
+            pool.release(user);
+        }
+        return user;
+    }
+}
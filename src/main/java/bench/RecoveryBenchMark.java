@@ -0,0 +1,97 @@
+package bench;
+
+import common.Recovery;
+import common.TransactionLog;
+import common.Workload;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * startup time of a ledger restored from its latest snapshot and log tail
+ * tail is the number of operations logged after the last snapshot, what the snapshot interval leaves to replay
+ * a tail of -1 takes no snapshot at all, so every record from account opening on is replayed
+ *
+ * @author SeanMcGrath
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RecoveryBenchMark {
+
+    @Param({"100000", "1000000"})
+    public int accounts;
+
+    @Param({"-1", "0", "1000000", "4000000"})
+    public int tail;
+
+    Workload workload;
+    Path dir;
+    my_version.BankManager recovered;
+
+    /**
+     * builds the snapshot and log once, every invocation recovers from the same files
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        workload = new Workload();
+        workload.setAccounts(accounts);
+        dir = Files.createTempDirectory("recovery-bench");
+        my_version.BankManager bm = new my_version.BankManager(64, workload);
+        TransactionLog log = new TransactionLog(dir.resolve("log"), TransactionLog.Durability.NONE);
+        bm.setTransactionLog(log);
+        bm.initialize();
+        if (tail >= 0) {
+            bm.snapshot(dir.resolve("snapshots"));
+        }
+        Workload.Generator g = workload.newGenerator(0);
+        int ops = tail >= 0 ? tail : 1000000;//without a snapshot the opening records are replayed as well
+        for (int i = 0; i < ops; i++) {
+            if (i % 2 == 0) {
+                bm.deposit(g.nextAccount(), 1);
+            } else {
+                bm.transfer(g.nextAccount(), g.nextAccount(), 1);
+            }
+        }
+        log.sync(log.position());
+        log.close();
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeRecovered() {
+        recovered.getTransactionLog().close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public Recovery recover() {
+        recovered = new my_version.BankManager(64, workload);
+        return recovered.recover(dir.resolve("snapshots"), dir.resolve("log"), TransactionLog.Durability.NONE);
+    }
+}
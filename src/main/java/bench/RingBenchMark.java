@@ -0,0 +1,79 @@
+package bench;
+
+import common.Ledger;
+import common.Workload;
+import net.Ledgers;
+import ring_version.RingLedger;
+import ring_version.WaitStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * latency percentiles of the ring ledger for each wait strategy next to the CAS paths of the other versions
+ * engine=ring uses the wait strategy and partitions params, the other engines ignore them
+ * the writers need cores of their own, with BUSY_SPIN on fewer cores than writers + callers the numbers mean little
+ * run with: java -cp ... org.openjdk.jmh.Main RingBenchMark
+ *
+ * @author SeanMcGrath
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RingBenchMark {
+
+    @Param({"ring", "lockfree", "jdk"})
+    public String engine;
+
+    @Param({"BUSY_SPIN", "YIELD", "PARK"})
+    public WaitStrategy waitStrategy;
+
+    @Param({"1", "4"})
+    public int partitions;
+
+    private Ledger ledger;
+    private int accounts;
+
+    @Setup
+    public void setup() {
+        Workload workload = new Workload();
+        if (engine.equals("ring")) {
+            RingLedger ring = new RingLedger(workload, partitions, waitStrategy);
+            ring.initialize();
+            ledger = ring;
+        } else {
+            ledger = Ledgers.create(engine, workload);
+        }
+        accounts = ledger.getAccounts();
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (ledger instanceof RingLedger) {
+            ((RingLedger) ledger).close();
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void deposit() {
+        ledger.deposit(ThreadLocalRandom.current().nextInt(accounts), 1);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean transfer() {
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        return ledger.transfer(r.nextInt(accounts), r.nextInt(accounts), 1);
+    }
+}
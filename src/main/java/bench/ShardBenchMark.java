@@ -0,0 +1,117 @@
+package bench;
+
+import common.Workload;
+import net.BankServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import shard.LoopbackTransport;
+import shard.NioTransport;
+import shard.Router;
+import shard.ShardServer;
+import shard.Transport;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * throughput of a sharded ledger from 1 to 8 shards, over the loopback and the NIO transport
+ * every shard of the nio runs serves from its own selector thread on localhost, all in this JVM
+ * the workload's mix decides how many transfers cross shards and go through two phase commit
+ *
+ * @author SeanMcGrath
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class ShardBenchMark {
+
+    @Param({"1", "2", "4", "8"})
+    public int shards;
+
+    @Param({"loopback", "nio"})
+    public String transport;
+
+    private static final int ACCOUNTS = 100000;
+
+    Router router;
+    Workload workload;
+    private Transport link;
+    private BankServer[] servers;
+
+    @State(Scope.Thread)
+    public static class Ops {
+        Workload.Generator generator;
+
+        @Setup(Level.Trial)
+        public void setup(ShardBenchMark bench) {
+            generator = bench.workload.newGenerator(Thread.currentThread().getId());
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        workload = new Workload();
+        workload.setAccounts(ACCOUNTS);
+        ShardServer[] shard = new ShardServer[shards];
+        for (int i = 0; i < shards; i++) {
+            shard[i] = new ShardServer(i, shards, workload, 64);
+        }
+        if (transport.equals("nio")) {
+            servers = new BankServer[shards];
+            InetSocketAddress[] addresses = new InetSocketAddress[shards];
+            for (int i = 0; i < shards; i++) {
+                servers[i] = new BankServer(shard[i], new InetSocketAddress("127.0.0.1", 0));
+                addresses[i] = servers[i].getAddress();
+            }
+            link = new NioTransport(addresses);
+        } else {
+            link = new LoopbackTransport(shard);
+        }
+        router = new Router(link, ACCOUNTS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        link.close();
+        if (servers != null) {
+            for (BankServer s : servers) {
+                s.close();
+            }
+        }
+    }
+
+    /**
+     * the workload's task mix, PAY has no bank side so it reads the balance instead
+     */
+    @Benchmark
+    public int mixed(Ops ops) {
+        Workload.Generator g = ops.generator;
+        switch (g.nextTask()) {
+            case Workload.WITHDRAW:
+                return router.withdraw(g.nextAccount(), 1) ? 1 : 0;
+            case Workload.DEPOSIT:
+                router.deposit(g.nextAccount(), 1);
+                return 1;
+            case Workload.TRANSFER:
+                return router.transfer(g.nextAccount(), g.nextAccount(), 1) ? 1 : 0;
+            default:
+                return router.getBalance(g.nextAccount());
+        }
+    }
+}
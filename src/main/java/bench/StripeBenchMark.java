@@ -0,0 +1,96 @@
+package bench;
+
+import my_version.Backoff;
+import my_version.BankManager;
+import my_version.SpinStats;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * deposit/withdraw throughput for different seq lock stripe counts
+ * stripes=1 is the old single global lock, stripes=0 is lock-free CAS on the hashmap
+ * backoff=spin never gives up the core, default spins, yields then parks, see Backoff
+ * the contention counters of each iteration are reported as secondary results, see Contention
+ * run with: java -cp ... org.openjdk.jmh.Main StripeBenchMark
+ *
+ * @author SeanMcGrath
+ */
+@State(Scope.Benchmark)
+public class StripeBenchMark {
+
+    @Param({"0", "1", "16", "64", "256"})
+    public int stripes;
+
+    @Param({"spin", "default"})
+    public String backoff;
+
+    private BankManager bm;
+    private int accounts;
+    private final AtomicBoolean reported = new AtomicBoolean();
+
+    /**
+     * contention counts of the iteration, jmh zeroes them before it and sums them over the threads after it
+     * the counters are the manager's, so only the first thread to finish the iteration fills them in
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Contention {
+        public long contended;
+        public long casFailures;
+        public long readRetries;
+        public long yields;
+        public long parks;
+
+        @TearDown(Level.Iteration)
+        public void fill(StripeBenchMark bench) {
+            if (bench.reported.compareAndSet(false, true)) {
+                SpinStats stats = bench.bm.getSpinStats();
+                contended = stats.getContended();
+                casFailures = stats.getCasFailures();
+                readRetries = stats.getReadRetries();
+                yields = stats.getYields();
+                parks = stats.getParks();
+            }
+        }
+    }
+
+    @Setup
+    public void setup() {
+        bm = new BankManager(stripes);
+        bm.setBackoff(backoff.equals("spin") ? Backoff.SPIN : Backoff.DEFAULT);
+        bm.initialize();
+        accounts = bm.getAccounts();
+    }
+
+    @Setup(Level.Iteration)
+    public void startIteration() {
+        bm.getSpinStats().reset();
+        reported.set(false);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Threads(Threads.MAX)
+    public void deposit(Contention contention) {
+        bm.deposit(ThreadLocalRandom.current().nextInt(accounts), 1);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Threads(Threads.MAX)
+    public boolean withdraw(Contention contention) {
+        return bm.withdraw(ThreadLocalRandom.current().nextInt(accounts), 1);
+    }
+}
@@ -0,0 +1,243 @@
+package common;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * account store with one 64 bit cell per dense account number: [1 bit open][31 bits held][32 bits balance]
+ * held is money reserved by holds, it stays in the balance until captured but cannot be withdrawn or held again
+ * every change is one CAS loop on the cell, so balance and held always move together and nothing is allocated
+ * an account may go below zero down to its overdraft limit, 0 unless set, counting held money as already gone:
+ * balance - held - amount >= -limit for a withdrawal or a new hold
+ *
+ * @author SeanMcGrath
+ */
+public class AccountCells implements AccountStore {
+
+    private static final long OPEN = 1L << 63;
+    private static final int HELD_SHIFT = 32;
+    private static final long HELD_MASK = 0x7FFFFFFFL;
+    private static final long BALANCE_MASK = 0xFFFFFFFFL;
+
+    private final AtomicLongArray cells;
+    private final AtomicIntegerArray limits;
+
+    /**
+     * @param accounts - account numbers run from 0 to accounts-1, none of them open yet
+     */
+    public AccountCells(int accounts) {
+        cells = new AtomicLongArray(accounts);
+        limits = new AtomicIntegerArray(accounts);
+    }
+
+    private static long pack(long held, int balance) {
+        return OPEN | held << HELD_SHIFT | (balance & BALANCE_MASK);
+    }
+
+    private static int balanceOf(long cell) {
+        return (int) cell;
+    }
+
+    private static long heldOf(long cell) {
+        return (cell >>> HELD_SHIFT) & HELD_MASK;
+    }
+
+    private boolean exists(long account) {
+        return account >= 0 && account < cells.length();
+    }
+
+    public int getAccounts() {
+        return cells.length();
+    }
+
+    @Override
+    public int get(long account) {
+        if (!exists(account)) {
+            return MISSING;
+        }
+        long c = cells.get((int) account);
+        return c == 0 ? MISSING : balanceOf(c);
+    }
+
+    /**
+     * sets the balance and keeps any held money, opening the account if it is not open
+     */
+    @Override
+    public void put(long account, int balance) {
+        if (!exists(account)) {
+            throw new IllegalArgumentException("account " + account + " is outside 0-" + (cells.length() - 1));
+        }
+        int i = (int) account;
+        for (; ; ) {
+            long c = cells.get(i);
+            if (cells.compareAndSet(i, c, pack(heldOf(c), balance))) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public int addAndGet(long account, int delta) {
+        if (!exists(account)) {
+            return MISSING;
+        }
+        int i = (int) account;
+        for (; ; ) {
+            long c = cells.get(i);
+            if (c == 0) {
+                return MISSING;
+            }
+            int n = balanceOf(c) + delta;
+            if (cells.compareAndSet(i, c, pack(heldOf(c), n))) {
+                return n;
+            }
+        }
+    }
+
+    /**
+     * compares and sets the balance only, a hold changing in between does not make it fail
+     */
+    @Override
+    public boolean compareAndSet(long account, int expect, int update) {
+        if (!exists(account)) {
+            return false;
+        }
+        int i = (int) account;
+        for (; ; ) {
+            long c = cells.get(i);
+            if (c == 0 || balanceOf(c) != expect) {
+                return false;
+            }
+            if (cells.compareAndSet(i, c, pack(heldOf(c), update))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param account - account number
+     * @return - money held on the account, -1 if there is no such account
+     */
+    public int getHeld(long account) {
+        if (!exists(account)) {
+            return -1;
+        }
+        long c = cells.get((int) account);
+        return c == 0 ? -1 : (int) heldOf(c);
+    }
+
+    /**
+     * @param account - account number
+     * @return - what can still be withdrawn or held, overdraft included, MISSING if there is no such account
+     */
+    public long getAvailable(long account) {
+        if (!exists(account)) {
+            return MISSING;
+        }
+        int i = (int) account;
+        long c = cells.get(i);
+        return c == 0 ? MISSING : (long) balanceOf(c) - heldOf(c) + limits.get(i);
+    }
+
+    /**
+     * @param account - account number
+     * @param limit   - how far below zero the account may go, 0 for not at all
+     *                  withdrawals stop at -limit, so even Integer.MAX_VALUE keeps the balance above MISSING
+     */
+    public void setOverdraftLimit(long account, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("overdraft limit " + limit + " is negative");
+        }
+        limits.set((int) account, limit);
+    }
+
+    public int getOverdraftLimit(long account) {
+        return limits.get((int) account);
+    }
+
+    /**
+     * takes amount out if the account has it available, checked and taken in one CAS
+     *
+     * @param account - account number
+     * @param amount  - amount to take, not negative
+     * @return - true if taken, false if not available or there is no such account
+     */
+    public boolean tryWithdraw(long account, int amount) {
+        if (!exists(account) || amount < 0) {
+            return false;
+        }
+        int i = (int) account;
+        for (; ; ) {
+            long c = cells.get(i);
+            if (c == 0 || (long) balanceOf(c) - heldOf(c) - amount < -limits.get(i)) {
+                return false;
+            }
+            if (cells.compareAndSet(i, c, pack(heldOf(c), balanceOf(c) - amount))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * reserves amount for a later capture, it stays in the balance but can no longer be withdrawn
+     *
+     * @param account - account number
+     * @param amount  - amount to hold, not negative
+     * @return - true if held, false if not available or there is no such account
+     */
+    public boolean hold(long account, int amount) {
+        if (!exists(account) || amount < 0) {
+            return false;
+        }
+        int i = (int) account;
+        for (; ; ) {
+            long c = cells.get(i);
+            long held = heldOf(c) + amount;
+            if (c == 0 || (long) balanceOf(c) - held < -limits.get(i) || held > HELD_MASK) {
+                return false;
+            }
+            if (cells.compareAndSet(i, c, pack(held, balanceOf(c)))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * takes held money out of the account, it was reserved by hold so this cannot overdraw
+     *
+     * @param account - account number
+     * @param amount  - amount to take, at most what is held
+     * @return - true if taken, false if less than amount is held
+     */
+    public boolean capture(long account, int amount) {
+        return settle(account, amount, true);
+    }
+
+    /**
+     * gives held money back to the available balance without taking it
+     *
+     * @param account - account number
+     * @param amount  - amount to release, at most what is held
+     * @return - true if released, false if less than amount is held
+     */
+    public boolean release(long account, int amount) {
+        return settle(account, amount, false);
+    }
+
+    private boolean settle(long account, int amount, boolean take) {
+        if (!exists(account) || amount < 0) {
+            return false;
+        }
+        int i = (int) account;
+        for (; ; ) {
+            long c = cells.get(i);
+            if (c == 0 || heldOf(c) < amount) {
+                return false;
+            }
+            int balance = take ? balanceOf(c) - amount : balanceOf(c);
+            if (cells.compareAndSet(i, c, pack(heldOf(c) - amount, balance))) {
+                return true;
+            }
+        }
+    }
+}
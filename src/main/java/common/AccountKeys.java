@@ -0,0 +1,35 @@
+package common;
+
+/**
+ * id strings of dense account numbers for the string keyed stores, so lookups do not build a new string each time
+ * numbers outside the cached range get a fresh string
+ *
+ * @author SeanMcGrath
+ */
+public final class AccountKeys {
+
+    private final String[] keys;
+
+    /**
+     * @param accounts - account numbers below this get their id string cached
+     */
+    public AccountKeys(int accounts) {
+        keys = new String[accounts];
+    }
+
+    /**
+     * @param account - account number
+     * @return - id string of the account
+     */
+    public String of(long account) {
+        if (account < 0 || account >= keys.length) {
+            return Long.toString(account);
+        }
+        String k = keys[(int) account];
+        if (k == null) {//racy fill is fine, strings are immutable and equal
+            k = Long.toString(account);
+            keys[(int) account] = k;
+        }
+        return k;
+    }
+}
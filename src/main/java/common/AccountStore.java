@@ -0,0 +1,46 @@
+package common;
+
+/**
+ * bank account balances keyed by primitive account number
+ * balances are in cents, every single method is atomic on its own
+ *
+ * @author SeanMcGrath
+ */
+public interface AccountStore {
+
+    //returned for an account that does not exist, a store that allows overdrafts can really hold -1
+    int MISSING = Integer.MIN_VALUE;
+
+    /**
+     * @param account - account number
+     * @return - balance of the account, MISSING if there is no such account
+     */
+    int get(long account);
+
+    /**
+     * sets the balance of the account, opening it if it does not exist
+     *
+     * @param account - account number
+     * @param balance - new balance
+     */
+    void put(long account, int balance);
+
+    /**
+     * atomically adds delta to the balance of the account
+     *
+     * @param account - account number
+     * @param delta   - amount to add, negative to take away
+     * @return - the new balance, MISSING if there is no such account
+     */
+    int addAndGet(long account, int delta);
+
+    /**
+     * atomically sets the balance to update if it currently is expect
+     *
+     * @param account - account number
+     * @param expect  - balance the account must have
+     * @param update  - new balance
+     * @return - true if the balance was set, false if it was not expect or there is no such account
+     */
+    boolean compareAndSet(long account, int expect, int update);
+}
@@ -0,0 +1,282 @@
+package common;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * bounds how much work is in flight at once, work over the limit is handled by the policy:
+ * BLOCK waits for a slot, SHED refuses the work and counts it, CALLER_RUNS runs it on the submitting thread
+ * so the submitter slows down by as much as the work costs
+ * the limit is fixed, or adapts to latency: every window of completions the limit is scaled by
+ * min latency * TOLERANCE / window latency, so it shrinks as soon as work queues up and grows back by
+ * about sqrt(limit) a window while latency stays within TOLERANCE of the best seen
+ * taking a slot is one CAS unless the limit is reached, only blocked threads take the lock
+ *
+ * @author SeanMcGrath
+ */
+public class Admission {
+
+    /**
+     * what happens to work over the limit
+     */
+    public enum Policy {BLOCK, SHED, CALLER_RUNS}
+
+    private static final double TOLERANCE = 2.0;//window latency up to this times the best is not queueing
+    private static final double SMOOTHING = 0.2;//weight of a new limit against the old one
+    private static final int MIN_WINDOW = 32;//completions per limit update at least
+    private static final double DRIFT = 0.001;//best latency creeps up this much a window, so it can follow a slower bank
+
+    private final Policy policy;
+    private final boolean adaptive;
+    private final int minLimit;
+    private final int maxLimit;
+    private volatile double limit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    //threads blocked in acquire wait here, see release
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition slotFree = lock.newCondition();
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    //latency window, the thread that fills it updates the limit
+    private final AtomicInteger windowCount = new AtomicInteger();
+    private final LongAdder windowNanos = new LongAdder();
+    private final AtomicLong minWindowNanos = new AtomicLong(Long.MAX_VALUE);
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder callerRuns = new LongAdder();
+    private final LongAdder blockedNanos = new LongAdder();
+
+    /**
+     * fixed limit
+     *
+     * @param policy - what happens to work over the limit
+     * @param limit  - work in flight at most
+     */
+    public Admission(Policy policy, int limit) {
+        this(policy, limit, limit, limit, false);
+    }
+
+    /**
+     * limit adapting to latency between minLimit and maxLimit
+     *
+     * @param policy       - what happens to work over the limit
+     * @param initialLimit - limit to start from
+     * @param minLimit     - limit never goes below this, at least 1
+     * @param maxLimit     - limit never goes above this
+     */
+    public Admission(Policy policy, int initialLimit, int minLimit, int maxLimit) {
+        this(policy, initialLimit, minLimit, maxLimit, true);
+    }
+
+    private Admission(Policy policy, int initialLimit, int minLimit, int maxLimit, boolean adaptive) {
+        if (minLimit < 1 || minLimit > maxLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("limits must satisfy 1 <= min " + minLimit + " <= initial "
+                    + initialLimit + " <= max " + maxLimit);
+        }
+        this.policy = policy;
+        this.adaptive = adaptive;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+    }
+
+    /**
+     * runs the task on the executor if it is admitted, its slot is given back when it finishes
+     *
+     * @param executor - runs admitted tasks
+     * @param task     - task to run
+     * @return - true if the task ran or will run, false if it was shed
+     */
+    public boolean execute(Executor executor, Runnable task) {
+        if (!tryAcquire()) {
+            switch (policy) {
+                case SHED:
+                    shed.increment();
+                    return false;
+                case CALLER_RUNS:
+                    callerRuns.increment();
+                    task.run();
+                    return true;
+                default:
+                    acquire();
+            }
+        }
+        long start = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    release(start);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            release(start);
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * takes a slot for work the caller does itself, give it back with exit
+     * under CALLER_RUNS the caller is already the one running the work, so it goes ahead over the limit
+     *
+     * @return - start time to give to exit, -1 if the work was shed and must not be done
+     */
+    public long enter() {
+        if (!tryAcquire()) {
+            switch (policy) {
+                case SHED:
+                    shed.increment();
+                    return -1;
+                case CALLER_RUNS:
+                    callerRuns.increment();
+                    inFlight.incrementAndGet();//counted so exit can give it back
+                    break;
+                default:
+                    acquire();
+            }
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * @param start - from enter
+     */
+    public void exit(long start) {
+        release(start);
+    }
+
+    private boolean tryAcquire() {
+        for (; ; ) {
+            int n = inFlight.get();
+            if (n >= (int) limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(n, n + 1)) {
+                admitted.increment();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * waits until a slot is free, a waiter counts itself before trying and release frees before checking for waiters,
+     * so a slot freed while a waiter gets ready is never missed
+     */
+    private void acquire() {
+        long t = System.nanoTime();
+        lock.lock();
+        waiters.incrementAndGet();
+        try {
+            while (!tryAcquire()) {
+                slotFree.awaitUninterruptibly();
+            }
+        } finally {
+            waiters.decrementAndGet();
+            lock.unlock();
+        }
+        blockedNanos.add(System.nanoTime() - t);
+    }
+
+    private void release(long start) {
+        inFlight.decrementAndGet();
+        if (adaptive) {
+            sample(System.nanoTime() - start);
+        }
+        if (waiters.get() > 0) {
+            lock.lock();
+            try {
+                slotFree.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * adds a latency to the window, the completion that fills the window works out the new limit
+     */
+    private void sample(long nanos) {
+        windowNanos.add(nanos);
+        int count = windowCount.incrementAndGet();
+        if (count < Math.max(MIN_WINDOW, (int) limit) || !windowCount.compareAndSet(count, 0)) {
+            return;
+        }
+        long avg = windowNanos.sumThenReset() / count;//a few samples may slip into the next window, it is an estimate
+        long min = minWindowNanos.get();
+        min = Math.min(avg, min == Long.MAX_VALUE ? min : (long) (min * (1 + DRIFT)) + 1);
+        minWindowNanos.set(min);
+        double old = limit;
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * min / Math.max(1, avg)));
+        double target = old * gradient + Math.sqrt(old);
+        double next = Math.max(minLimit, Math.min(maxLimit, (1 - SMOOTHING) * old + SMOOTHING * target));
+        limit = next;
+        if ((int) next > (int) old && waiters.get() > 0) {//more slots, wake everyone that fits
+            lock.lock();
+            try {
+                slotFree.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return - work in flight allowed right now
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return - work taken within the limit
+     */
+    public long getAdmitted() {
+        return admitted.sum();
+    }
+
+    /**
+     * @return - work refused under SHED
+     */
+    public long getShed() {
+        return shed.sum();
+    }
+
+    /**
+     * @return - work over the limit run by the submitter under CALLER_RUNS
+     */
+    public long getCallerRuns() {
+        return callerRuns.sum();
+    }
+
+    /**
+     * @return - time spent waiting for a slot under BLOCK, over all threads
+     */
+    public long getBlockedNanos() {
+        return blockedNanos.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s limit %d, in flight %d, admitted %d, shed %d, caller runs %d, blocked %.1f ms",
+                policy, getLimit(), getInFlight(), getAdmitted(), getShed(), getCallerRuns(),
+                TimeUnit.NANOSECONDS.toMicros(getBlockedNanos()) / 1e3);
+    }
+}
@@ -0,0 +1,83 @@
+package common;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * pins threads to cpus on linux without native code: the thread finds its own kernel thread id
+ * through /proc/thread-self and has taskset move it, other systems just run unpinned
+ * to keep the whole jvm on a set of cpus, one socket say, launch it with taskset -c instead
+ *
+ * @author SeanMcGrath
+ */
+public final class Affinity {
+
+    private Affinity() {
+    }
+
+    /**
+     * @return - cpus this process may run on, from /proc/self/status, 0 to cores-1 when that cannot be read
+     */
+    public static int[] allowedCpus() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("Cpus_allowed_list:")) {
+                    return parseList(line.substring(line.indexOf(':') + 1).trim());
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            //not linux, fall through
+        }
+        int[] cpus = new int[Runtime.getRuntime().availableProcessors()];
+        for (int i = 0; i < cpus.length; i++) {
+            cpus[i] = i;
+        }
+        return cpus;
+    }
+
+    /**
+     * @param list - cpu list as taskset and the kernel write it, e.g. 0-3,8,10-11
+     * @return - every cpu in the list
+     */
+    static int[] parseList(String list) {
+        List<Integer> cpus = new ArrayList<>();
+        for (String range : list.split(",")) {
+            int dash = range.indexOf('-');
+            int lo = Integer.parseInt((dash < 0 ? range : range.substring(0, dash)).trim());
+            int hi = dash < 0 ? lo : Integer.parseInt(range.substring(dash + 1).trim());
+            for (int c = lo; c <= hi; c++) {
+                cpus.add(c);
+            }
+        }
+        return cpus.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * pins the calling thread to one cpu, call it from the thread itself
+     *
+     * @param cpu - cpu number, one of allowedCpus
+     * @return - true if pinned, false if the system or taskset would not
+     */
+    public static boolean pin(int cpu) {
+        try {
+            //a link to <pid>/task/<tid> of the thread that reads it
+            Path self = Files.readSymbolicLink(Paths.get("/proc/thread-self"));
+            String tid = self.getFileName().toString();
+            Process taskset = new ProcessBuilder("taskset", "-p", "-c", Integer.toString(cpu), tid)
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            return taskset.waitFor(5, TimeUnit.SECONDS) && taskset.exitValue() == 0;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
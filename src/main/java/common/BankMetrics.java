@@ -0,0 +1,322 @@
+package common;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * counts and latencies of the ledger operations of a bank
+ * every op is counted by the Recorder of its thread, failed withdrawals and transfers are counted apart,
+ * about one op in sampleEvery is also timed into the LatencyHistogram of its kind, so most ops never read the clock
+ * a ledger gets the recorder, calls start before an op and record after it, nothing on that path allocates
+ * or does an atomic read-modify-write, reading the clock or bumping a shared counter costs about as much as an op
+ *
+ * @author SeanMcGrath
+ */
+public final class BankMetrics implements BankMetricsMXBean {
+
+    //op kinds
+    public static final int DEPOSIT = 0;
+    public static final int WITHDRAW = 1;
+    public static final int TRANSFER = 2;
+    public static final int BALANCE = 3;
+    public static final int BATCH = 4;
+    private static final String[] NAMES = {"deposit", "withdraw", "transfer", "balance", "batch"};
+
+    public static final int DEFAULT_SAMPLE_EVERY = 1024;
+    //start value of an op that is not timed
+    private static final long NOT_TIMED = Long.MIN_VALUE;
+
+    private final int sampleMask;
+    private static final int FAILED = NAMES.length;//index of the failure counts in a recorder
+    private static final int MIN_SWEEP = 64;
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[NAMES.length];
+    private final ThreadLocal<Recorder> recorders = ThreadLocal.withInitial(this::newRecorder);
+    private final ConcurrentLinkedQueue<Recorder> live = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger liveCount = new AtomicInteger();
+    private volatile int sweepAt = MIN_SWEEP;//live recorders at which ended threads are swept next
+    private final long[] retired = new long[2 * NAMES.length];//counts of ended threads
+    private final long[] resetAt = new long[2 * NAMES.length];//counts at the last reset
+    private volatile IntSupplier busyUsers = () -> -1;
+    private volatile LongSupplier executorBacklog = () -> -1;
+
+    public BankMetrics() {
+        this(DEFAULT_SAMPLE_EVERY);
+    }
+
+    /**
+     * @param sampleEvery - time about one op in this many, rounded up to a power of two, 1 times every op
+     */
+    public BankMetrics(int sampleEvery) {
+        int n = 1;
+        while (n < sampleEvery) {
+            n <<= 1;
+        }
+        sampleMask = n - 1;
+        for (int k = 0; k < NAMES.length; k++) {
+            latencies[k] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * @return - the calling thread's recorder, look it up once per op and use it for start and record
+     */
+    public Recorder recorder() {
+        return recorders.get();
+    }
+
+    /**
+     * counts of one thread, only that thread writes them so an op costs no atomic read-modify-write
+     * the thread also counts down to its next timed op, with a random gap averaging sampleEvery
+     */
+    public final class Recorder {
+        private final Thread owner = Thread.currentThread();
+        private final AtomicLongArray counts = new AtomicLongArray(2 * NAMES.length);//ops of each kind, then failures
+        private int untilTimed = nextGap();
+
+        /**
+         * @return - pass to record, the start time if this op is timed
+         */
+        public long start() {
+            if (--untilTimed > 0) {
+                return NOT_TIMED;
+            }
+            untilTimed = nextGap();
+            return System.nanoTime();
+        }
+
+        /**
+         * @param op    - kind of op
+         * @param start - what start returned
+         * @param ok    - false when a withdrawal or transfer was refused
+         */
+        public void record(int op, long start, boolean ok) {
+            counts.lazySet(op, counts.get(op) + 1);//single writer, a release store is enough
+            if (!ok) {
+                counts.lazySet(FAILED + op, counts.get(FAILED + op) + 1);
+            }
+            if (start != NOT_TIMED) {
+                latencies[op].record(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private int nextGap() {
+        return sampleMask == 0 ? 1 : 1 + ThreadLocalRandom.current().nextInt(2 * (sampleMask + 1));
+    }
+
+    /**
+     * first op of a thread, ended threads are swept here rather than on a timer so counting needs no extra thread
+     */
+    private Recorder newRecorder() {
+        Recorder r = new Recorder();
+        live.add(r);
+        if (liveCount.incrementAndGet() >= sweepAt) {
+            sweep();
+        }
+        return r;
+    }
+
+    /**
+     * folds the counts of threads that have ended into retired, so one recorder per virtual thread does not pile up
+     * seeing isAlive false makes every count the thread wrote visible here
+     */
+    private synchronized void sweep() {
+        for (Iterator<Recorder> it = live.iterator(); it.hasNext(); ) {
+            Recorder r = it.next();
+            if (!r.owner.isAlive()) {
+                for (int k = 0; k < retired.length; k++) {
+                    retired[k] += r.counts.get(k);
+                }
+                it.remove();
+                liveCount.decrementAndGet();
+            }
+        }
+        sweepAt = Math.max(MIN_SWEEP, 2 * liveCount.get());
+    }
+
+    /**
+     * @param k - index into the counts, op or FAILED + op
+     * @return - count since the last reset, a thread's latest ops may not be in it yet
+     */
+    private synchronized long sum(int k) {
+        long n = retired[k];
+        for (Recorder r : live) {
+            n += r.counts.get(k);
+        }
+        return n - resetAt[k];
+    }
+
+    /**
+     * @param busy - reads how many users are in a running task
+     */
+    public void setBusyUsers(IntSupplier busy) {
+        this.busyUsers = busy;
+    }
+
+    /**
+     * @param executor - executor whose queued tasks are reported, null for none
+     */
+    public void setExecutor(ExecutorService executor) {
+        if (executor instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            executorBacklog = () -> pool.getQueue().size();
+        } else if (executor instanceof ForkJoinPool) {
+            ForkJoinPool pool = (ForkJoinPool) executor;
+            executorBacklog = () -> pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount();
+        } else {
+            executorBacklog = () -> -1;//virtual threads never queue for a thread
+        }
+    }
+
+    /**
+     * @param op - kind of op
+     * @return - its latency histogram
+     */
+    public LatencyHistogram latency(int op) {
+        return latencies[op];
+    }
+
+    @Override
+    public long getDeposits() {
+        return sum(DEPOSIT);
+    }
+
+    @Override
+    public long getWithdrawals() {
+        return sum(WITHDRAW);
+    }
+
+    @Override
+    public long getWithdrawFailures() {
+        return sum(FAILED + WITHDRAW);
+    }
+
+    @Override
+    public long getTransfers() {
+        return sum(TRANSFER);
+    }
+
+    @Override
+    public long getTransferFailures() {
+        return sum(FAILED + TRANSFER);
+    }
+
+    @Override
+    public long getBalanceReads() {
+        return sum(BALANCE);
+    }
+
+    @Override
+    public long getBatches() {
+        return sum(BATCH);
+    }
+
+    @Override
+    public int getBusyUsers() {
+        return busyUsers.getAsInt();
+    }
+
+    @Override
+    public long getExecutorBacklog() {
+        return executorBacklog.getAsLong();
+    }
+
+    @Override
+    public int getSampleEvery() {
+        return sampleMask + 1;
+    }
+
+    @Override
+    public Map<String, Double> getLatencyMicros() {
+        Map<String, Double> micros = new LinkedHashMap<>();
+        for (int k = 0; k < NAMES.length; k++) {
+            LatencyHistogram h = latencies[k];
+            micros.put(NAMES[k] + ".p50", h.percentile(50) / 1e3);
+            micros.put(NAMES[k] + ".p99", h.percentile(99) / 1e3);
+            micros.put(NAMES[k] + ".p99.9", h.percentile(99.9) / 1e3);
+            micros.put(NAMES[k] + ".max", h.getMax() / 1e3);
+            micros.put(NAMES[k] + ".mean", h.getMean() / 1e3);
+        }
+        return micros;
+    }
+
+    /**
+     * counts restart from 0 without touching the recorders, histograms are emptied and may lose values recorded meanwhile
+     */
+    @Override
+    public synchronized void reset() {
+        for (int k = 0; k < resetAt.length; k++) {
+            resetAt[k] += sum(k);
+        }
+        for (LatencyHistogram h : latencies) {
+            h.reset();
+        }
+    }
+
+    /**
+     * @return - one line per op kind plus the queue gauges
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        for (int k = 0; k < NAMES.length; k++) {
+            LatencyHistogram h = latencies[k];
+            sb.append(String.format("%-8s %12d ops %10d failed, us p50 %.2f p99 %.2f p99.9 %.2f max %.2f%n",
+                    NAMES[k], sum(k), sum(FAILED + k), h.percentile(50) / 1e3, h.percentile(99) / 1e3,
+                    h.percentile(99.9) / 1e3, h.getMax() / 1e3));
+        }
+        sb.append("busy users ").append(getBusyUsers()).append(", executor backlog ").append(getExecutorBacklog());
+        return sb.toString();
+    }
+
+    /**
+     * prints the report every period on a daemon thread
+     *
+     * @param out    - where to print
+     * @param period - time between reports
+     * @param unit   - unit of period
+     * @return - the scheduler, shut it down to stop
+     */
+    public ScheduledExecutorService reportEvery(PrintStream out, long period, TimeUnit unit) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> out.println(report()), period, period, unit);
+        return scheduler;
+    }
+
+    /**
+     * registers these metrics with the platform MBean server
+     *
+     * @param name - name key of the bean, e.g. seqlock
+     * @return - object name it was registered under, unregister it with that
+     */
+    public ObjectName register(String name) {
+        try {
+            ObjectName objectName = new ObjectName("bank:type=BankMetrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("could not register metrics " + name, e);
+        }
+    }
+}
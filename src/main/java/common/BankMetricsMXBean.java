@@ -0,0 +1,47 @@
+package common;
+
+import java.util.Map;
+
+/**
+ * what BankMetrics shows over JMX, under bank:type=BankMetrics,name=...
+ *
+ * @author SeanMcGrath
+ */
+public interface BankMetricsMXBean {
+
+    long getDeposits();
+
+    long getWithdrawals();
+
+    long getWithdrawFailures();
+
+    long getTransfers();
+
+    long getTransferFailures();
+
+    long getBalanceReads();
+
+    long getBatches();
+
+    /**
+     * @return - users in a running task, -1 when unknown
+     */
+    int getBusyUsers();
+
+    /**
+     * @return - client tasks waiting for an executor thread, -1 when unknown
+     */
+    long getExecutorBacklog();
+
+    /**
+     * @return - about one op in this many is timed
+     */
+    int getSampleEvery();
+
+    /**
+     * @return - op.p50, op.p99, op.p99.9, op.max and op.mean of every op, in microseconds
+     */
+    Map<String, Double> getLatencyMicros();
+
+    void reset();
+}
@@ -0,0 +1,115 @@
+package common;
+
+import java.util.Arrays;
+
+/**
+ * reusable buffer of deposits and withdrawals applied together by applyBatch
+ * a positive delta is a deposit, a negative delta a withdrawal of -delta
+ * after applyBatch each op has the new balance of its account, or REFUSED
+ * clear and refill the same batch instead of making a new one wherever its owner applies it itself,
+ * a batch handed to another thread to apply is a new allocation per batch
+ *
+ * @author SeanMcGrath
+ */
+public class Batch {
+
+    //result of a withdrawal that did not have enough money, or an op on an unknown account
+    //never a balance, an overdrawn account can be at -1, and the same as AccountStore.MISSING
+    public static final int REFUSED = AccountStore.MISSING;
+
+    private final long[] accounts;
+    private final int[] deltas;
+    private final int[] results;
+    private final long[] order;//scratch space for grouping ops, see sortByGroup
+    private int size;
+
+    /**
+     * @param capacity - most ops the batch can hold
+     */
+    public Batch(int capacity) {
+        accounts = new long[capacity];
+        deltas = new int[capacity];
+        results = new int[capacity];
+        order = new long[capacity];
+    }
+
+    /**
+     * @param account - account number
+     * @param delta   - amount to add, negative to withdraw
+     * @return - false if the batch is full and the op was not added
+     */
+    public boolean add(long account, int delta) {
+        if (size == accounts.length) {
+            return false;
+        }
+        accounts[size] = account;
+        deltas[size] = delta;
+        results[size] = REFUSED;
+        size++;
+        return true;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == accounts.length;
+    }
+
+    public long account(int i) {
+        return accounts[i];
+    }
+
+    public int delta(int i) {
+        return deltas[i];
+    }
+
+    /**
+     * @param i - op index
+     * @return - new balance after the op, or REFUSED
+     */
+    public int result(int i) {
+        return results[i];
+    }
+
+    public void setResult(int i, int result) {
+        results[i] = result;
+    }
+
+    /**
+     * @param i     - op index
+     * @param group - lock stripe or shard the op belongs to, must not be negative
+     */
+    public void setGroup(int i, int group) {
+        order[i] = ((long) group << 32) | i;
+    }
+
+    /**
+     * sorts the ops by the group given to setGroup, keeping batch order inside a group
+     * afterwards opAt(k) gives the op index of the k-th op in group order
+     */
+    public void sortByGroup() {
+        Arrays.sort(order, 0, size);
+    }
+
+    /**
+     * @param k - position in group order, after sortByGroup
+     * @return - op index
+     */
+    public int opAt(int k) {
+        return (int) order[k];
+    }
+
+    /**
+     * @param k - position in group order, after sortByGroup
+     * @return - group of that op
+     */
+    public int groupAt(int k) {
+        return (int) (order[k] >>> 32);
+    }
+}
@@ -0,0 +1,72 @@
+package common;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntToLongFunction;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * runs a job over every account number on a fork join pool, the range 0 to accounts-1 is split in halves
+ * until a piece is small enough, each piece runs on its own and the results are reduced back up
+ * the job is given one account at a time and must be atomic on it, online ops keep running in between
+ *
+ * @author SeanMcGrath
+ */
+public final class Bulk {
+
+    private static final int MIN_GRAIN = 1024;//accounts, below this splitting costs more than it saves
+    private static final int PIECES_PER_THREAD = 8;//spare pieces for stealing when some run slower
+
+    private Bulk() {
+    }
+
+    /**
+     * @param pool       - pool to run on, the caller waits for the result
+     * @param accounts   - account numbers run from 0 to accounts-1
+     * @param identity   - result of no accounts, must not change a result it is reduced with
+     * @param perAccount - job on one account number, gives what it did
+     * @param reducer    - combines two results, must be associative
+     * @return - results of every account reduced together
+     */
+    public static long reduce(ForkJoinPool pool, int accounts, long identity,
+                              IntToLongFunction perAccount, LongBinaryOperator reducer) {
+        int grain = Math.max(MIN_GRAIN, accounts / (pool.getParallelism() * PIECES_PER_THREAD));
+        return pool.invoke(new Range(0, accounts, grain, identity, perAccount, reducer));
+    }
+
+    private static final class Range extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final int lo;
+        private final int hi;
+        private final int grain;
+        private final long identity;
+        private final IntToLongFunction perAccount;
+        private final LongBinaryOperator reducer;
+
+        Range(int lo, int hi, int grain, long identity, IntToLongFunction perAccount, LongBinaryOperator reducer) {
+            this.lo = lo;
+            this.hi = hi;
+            this.grain = grain;
+            this.identity = identity;
+            this.perAccount = perAccount;
+            this.reducer = reducer;
+        }
+
+        @Override
+        protected Long compute() {
+            if (hi - lo <= grain) {
+                long result = identity;
+                for (int id = lo; id < hi; id++) {
+                    result = reducer.applyAsLong(result, perAccount.applyAsLong(id));
+                }
+                return result;
+            }
+            int mid = (lo + hi) >>> 1;
+            Range left = new Range(lo, mid, grain, identity, perAccount, reducer);
+            left.fork();
+            long right = new Range(mid, hi, grain, identity, perAccount, reducer).compute();
+            return reducer.applyAsLong(left.join(), right);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package common;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * on-person money of every simulated customer, one column indexed by account number
+ * replaces an object per customer: 8 bytes each instead of a Person, its AtomicInteger and a reference (about 44)
+ * account numbers run from 0 to size-1, so the id of a customer is its index and needs no column of its own
+ * a customer is only ever in one running task, so a wallet has a single writer at a time and is not padded,
+ * reads and writes are volatile so totals taken from other threads see whole values
+ *
+ * @author SeanMcGrath
+ */
+public class Customers {
+
+    private final AtomicLongArray wallets;
+
+    /**
+     * @param customers - number of customers, all with empty wallets
+     */
+    public Customers(int customers) {
+        wallets = new AtomicLongArray(customers);
+    }
+
+    public int size() {
+        return wallets.length();
+    }
+
+    /**
+     * gives every customer random money from $0.00-$999.99
+     *
+     * @param random - stream to draw the money from, see Workload.WALLETS
+     */
+    public void open(Workload.Generator random) {
+        for (int i = 0; i < wallets.length(); i++) {
+            wallets.set(i, random.nextInt(0, 100000));
+        }
+    }
+
+    /**
+     * @param id - account number
+     * @return - money the customer carries
+     */
+    public long getWallet(long id) {
+        return wallets.get((int) id);
+    }
+
+    /**
+     * @param id    - account number
+     * @param money - new amount the customer carries
+     */
+    public void setWallet(long id, long money) {
+        wallets.set((int) id, money);
+    }
+
+    /**
+     * @param id    - account number
+     * @param delta - money received, negative for money given away
+     * @return - what the customer carries now
+     */
+    public long addToWallet(long id, long delta) {
+        return wallets.addAndGet((int) id, delta);
+    }
+
+    /**
+     * @return - money carried by all customers, exact only while no task is running
+     */
+    public long total() {
+        long total = 0;
+        for (int i = 0; i < wallets.length(); i++) {
+            total += wallets.get(i);
+        }
+        return total;
+    }
+}
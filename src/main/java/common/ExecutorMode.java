@@ -0,0 +1,44 @@
+package common;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * how client tasks are run
+ *
+ * @author SeanMcGrath
+ */
+public enum ExecutorMode {
+
+    //new platform thread whenever no idle one is around, the original behaviour
+    CACHED,
+    //fixed number of platform threads, one per core unless told otherwise
+    FORK_JOIN,
+    //one virtual thread per task, needs a JDK 21+ runtime
+    VIRTUAL,
+    //one pinned worker per partition of accounts, tasks run on the worker owning their user's account
+    PARTITIONED;
+
+    /**
+     * @param parallelism - threads for FORK_JOIN and PARTITIONED, ignored by the other modes
+     * @return - a new executor for this mode
+     */
+    public ExecutorService newExecutor(int parallelism) {
+        switch (this) {
+            case FORK_JOIN:
+                return new ForkJoinPool(parallelism);
+            case PARTITIONED:
+                return new PartitionedExecutor(parallelism, true);
+            case VIRTUAL:
+                //looked up at runtime so the project still builds on JDKs older than 21
+                try {
+                    return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                } catch (ReflectiveOperationException e) {
+                    throw new UnsupportedOperationException("virtual threads need a JDK 21+ runtime, running on " + System.getProperty("java.version"), e);
+                }
+            default:
+                return Executors.newCachedThreadPool();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * pool of users that are not in a running task, claim and release are O(1) and lock-free
+ * bounded multi-producer multi-consumer ring of user indexes, every slot has a sequence number
+ * that says whether it is ready to be claimed from or released into at the current lap of the ring
+ *
+ * @author SeanMcGrath
+ */
+public class FreeAccountPool {
+
+    private static final int SPINS = 64;//claimReleased spins this often before yielding
+
+    private final AtomicLongArray sequences;
+    private final int[] slots;//written before its sequence is published, read after it is seen
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();//next slot to claim from
+    private final AtomicLong tail = new AtomicLong();//next slot to release into
+
+    /**
+     * starts with every user from 0 to users-1 free, in random order
+     *
+     * @param users  - number of users, the pool never holds more
+     * @param random - stream to shuffle with, see Workload.SHUFFLE
+     */
+    public FreeAccountPool(int users, Workload.Generator random) {
+        int n = 1;
+        while (n < users) {
+            n <<= 1;
+        }
+        mask = n - 1;
+        sequences = new AtomicLongArray(n);
+        slots = new int[n];
+        for (int i = 0; i < n; i++) {
+            sequences.set(i, i);
+        }
+        int[] order = new int[users];
+        for (int i = 0; i < users; i++) {//shuffle so claims start out random like before
+            int j = random.nextInt(i + 1);
+            order[i] = order[j];
+            order[j] = i;
+        }
+        for (int user : order) {
+            release(user);
+        }
+    }
+
+    /**
+     * @return - a free user, now marked as running, or -1 if every user is running
+     */
+    public int claim() {
+        long pos = head.get();
+        for (; ; ) {
+            int i = (int) pos & mask;
+            long dif = sequences.get(i) - (pos + 1);
+            if (dif == 0) {//slot holds a user for this lap
+                if (head.compareAndSet(pos, pos + 1)) {
+                    int user = slots[i];
+                    sequences.set(i, pos + mask + 1);//slot is free for the next lap of releases
+                    return user;
+                }
+                pos = head.get();
+            } else if (dif < 0) {//nothing released here yet, pool is empty
+                return -1;
+            } else {//another thread claimed it first
+                pos = head.get();
+            }
+        }
+    }
+
+    /**
+     * claims a user the caller knows is in the pool or on its way in, because it holds a permit for one
+     * with several releasers a slot can be taken but not written yet while a later slot is already published,
+     * claim gives -1 for that gap, this waits for the releaser to finish instead
+     *
+     * @return - a free user, now marked as running
+     */
+    public int claimReleased() {
+        for (int spins = 0; ; spins++) {
+            int user = claim();
+            if (user != -1) {
+                return user;
+            }
+            if (spins < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();//the releaser may have lost its core between taking and writing the slot
+            }
+        }
+    }
+
+    /**
+     * @param user - user that finished its task and is free again
+     * @return - false if the pool is already full, which means the user was released twice
+     */
+    public boolean release(int user) {
+        long pos = tail.get();
+        for (; ; ) {
+            int i = (int) pos & mask;
+            long dif = sequences.get(i) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots[i] = user;
+                    sequences.set(i, pos + 1);//publish to claimers
+                    return true;
+                }
+                pos = tail.get();
+            } else if (dif < 0) {//slot not claimed since last lap, pool is full
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package common;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * lock-free log-linear histogram of nanosecond latencies, the same bucketing as HdrHistogram
+ * values below 32 get a bucket each, above that every power of two is split into 32 buckets,
+ * so a bucket is never wider than about 3% of its values and 1,888 buckets cover every long
+ * recording is one atomic increment and two adder updates, nothing is allocated
+ *
+ * @author SeanMcGrath
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUBS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUBS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param value - latency, negative values count as 0
+     * @return - bucket of the value
+     */
+    static int bucketOf(long value) {
+        if (value < SUBS) {
+            return (int) Math.max(0, value);
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int group = msb - SUB_BITS + 1;
+        return group * SUBS + (int) (value >>> (msb - SUB_BITS)) - SUBS;
+    }
+
+    /**
+     * @param bucket - bucket index
+     * @return - largest value that lands in the bucket
+     */
+    static long highestIn(int bucket) {
+        int group = bucket / SUBS;
+        int sub = bucket % SUBS;
+        if (group == 0) {
+            return sub;
+        }
+        long width = 1L << (group - 1);
+        return (SUBS + sub) * width + width - 1;
+    }
+
+    /**
+     * @param nanos - latency of one operation
+     */
+    public void record(long nanos) {
+        counts.incrementAndGet(bucketOf(nanos));
+        count.increment();
+        total.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) total.sum() / n;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * walks the buckets once, values recorded during the walk may or may not be included
+     *
+     * @param p - percentile, 0 to 100
+     * @return - latency at or below which p percent of the recorded values are, within a bucket width
+     */
+    public long percentile(double p) {
+        long n = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            n += counts.get(b);
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(p / 100 * n));
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += counts.get(b);
+            if (seen >= rank) {
+                return Math.min(highestIn(b), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * empties the histogram, values recorded while resetting may be lost
+     */
+    public void reset() {
+        for (int b = 0; b < BUCKETS; b++) {
+            counts.set(b, 0);
+        }
+        count.reset();
+        total.reset();
+        max.reset();
+    }
+}
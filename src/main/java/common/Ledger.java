@@ -0,0 +1,65 @@
+package common;
+
+import java.nio.file.Path;
+
+/**
+ * bank side operations shared by every BankManager version
+ *
+ * @author SeanMcGrath
+ */
+public interface Ledger {
+
+    /**
+     * adds amount to the balance of the account
+     *
+     * @param id     - account number
+     * @param amount - amount to deposit
+     */
+    void deposit(long id, int amount);
+
+    /**
+     * takes amount from the account if it has more than amount
+     *
+     * @param id     - account number
+     * @param amount - amount to withdraw
+     * @return - true if withdrawn, false if there was not enough money
+     */
+    boolean withdraw(long id, int amount);
+
+    /**
+     * moves amount between two accounts, all or nothing
+     *
+     * @param from   - account number to take money from
+     * @param to     - account number to give money to
+     * @param amount - amount to move
+     * @return - true if moved, false if from does not have more than amount
+     */
+    boolean transfer(long from, long to, int amount);
+
+    /**
+     * @param id - account number
+     * @return - current balance, AccountStore.MISSING if there is no such account
+     */
+    int getBalance(long id);
+
+    /**
+     * applies every deposit and withdrawal in the batch, writing each result back into it
+     *
+     * @param batch - ops to apply
+     * @return - number of ops that were not refused
+     */
+    int applyBatch(Batch batch);
+
+    /**
+     * @return - number of accounts, account numbers run from 0 to this-1
+     */
+    int getAccounts();
+
+    /**
+     * writes a consistent copy of every balance without stopping writers, see Snapshot
+     *
+     * @param dir - snapshot directory
+     * @return - the snapshot file
+     */
+    Path snapshot(Path dir);
+}
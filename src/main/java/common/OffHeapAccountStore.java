@@ -0,0 +1,159 @@
+package common;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * account store that keeps keys and balances off the java heap in direct byte buffers
+ * open addressing with linear probing over 16 byte records: [long account][long state | balance]
+ * the table has a fixed capacity decided up front, it never resizes
+ * records are split over several buffers so the store can grow past the 2GB limit of one buffer
+ * direct memory is capped by -XX:MaxDirectMemorySize, 10M accounts take 256MB
+ *
+ * @author SeanMcGrath
+ */
+public class OffHeapAccountStore implements AccountStore {
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private static final int RECORD = 16;
+    private static final int SEGMENT_SHIFT = 20;//records per buffer, 16MB each
+    private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+
+    //account number of a never used record, the buffers are filled with it up front
+    private static final long NO_ACCOUNT = Long.MIN_VALUE;
+    private static final long PRESENT = 1L << 32;//high bits of the balance word once a balance is published
+    private static final long VALUE = 0xFFFFFFFFL;
+
+    private final ByteBuffer[] segments;
+    private final long mask;
+
+    /**
+     * @param accounts - most accounts the store will ever hold
+     */
+    public OffHeapAccountStore(long accounts) {
+        long n = 1;
+        while (n < accounts + (accounts >> 1)) {//keep the load factor under 2/3
+            n <<= 1;
+        }
+        mask = n - 1;
+        int perSegment = (int) Math.min(n, 1L << SEGMENT_SHIFT);
+        segments = new ByteBuffer[(int) ((n + perSegment - 1) / perSegment)];
+        for (int s = 0; s < segments.length; s++) {
+            ByteBuffer b = ByteBuffer.allocateDirect(perSegment * RECORD).order(ByteOrder.nativeOrder());
+            for (int i = 0; i < perSegment; i++) {
+                b.putLong(i * RECORD, NO_ACCOUNT);
+            }
+            segments[s] = b;
+        }
+    }
+
+    @Override
+    public int get(long account) {
+        long r = indexOf(account);
+        if (r < 0) {
+            return MISSING;
+        }
+        long v = (long) LONGS.getVolatile(segment(r), balanceOffset(r));
+        return v == 0 ? MISSING : (int) v;
+    }
+
+    @Override
+    public void put(long account, int balance) {
+        long r = claim(account);
+        LONGS.setVolatile(segment(r), balanceOffset(r), PRESENT | (balance & VALUE));
+    }
+
+    @Override
+    public int addAndGet(long account, int delta) {
+        long r = indexOf(account);
+        if (r < 0) {
+            return MISSING;
+        }
+        ByteBuffer b = segment(r);
+        int off = balanceOffset(r);
+        for (; ; ) {
+            long v = (long) LONGS.getVolatile(b, off);
+            if (v == 0) {//key claimed, balance not published yet
+                return MISSING;
+            }
+            int n = (int) v + delta;
+            if (LONGS.compareAndSet(b, off, v, PRESENT | (n & VALUE))) {
+                return n;
+            }
+        }
+    }
+
+    @Override
+    public boolean compareAndSet(long account, int expect, int update) {
+        long r = indexOf(account);
+        if (r < 0) {
+            return false;
+        }
+        return LONGS.compareAndSet(segment(r), balanceOffset(r), PRESENT | (expect & VALUE), PRESENT | (update & VALUE));
+    }
+
+    /**
+     * @return - record of the account, -1 if it is not in the store
+     */
+    private long indexOf(long account) {
+        long r = spread(account) & mask;
+        for (long probes = 0; probes <= mask; probes++) {
+            long k = (long) LONGS.getVolatile(segment(r), keyOffset(r));
+            if (k == account) {
+                return r;
+            }
+            if (k == NO_ACCOUNT) {
+                return -1;
+            }
+            r = (r + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * finds the record of the account, claiming an unused one by CAS if it is not there yet
+     *
+     * @return - record of the account
+     */
+    private long claim(long account) {
+        if (account == NO_ACCOUNT) {
+            throw new IllegalArgumentException("account number " + account + " is reserved");
+        }
+        long r = spread(account) & mask;
+        for (long probes = 0; probes <= mask; probes++) {
+            ByteBuffer b = segment(r);
+            long k = (long) LONGS.getVolatile(b, keyOffset(r));
+            if (k == NO_ACCOUNT) {
+                if (LONGS.compareAndSet(b, keyOffset(r), NO_ACCOUNT, account)) {
+                    return r;
+                }
+                k = (long) LONGS.getVolatile(b, keyOffset(r));//lost the race, see who won
+            }
+            if (k == account) {
+                return r;
+            }
+            r = (r + 1) & mask;
+        }
+        throw new IllegalStateException("account store is full");
+    }
+
+    private ByteBuffer segment(long r) {
+        return segments[(int) (r >>> SEGMENT_SHIFT)];
+    }
+
+    private static int keyOffset(long r) {
+        return (int) (r & SEGMENT_MASK) * RECORD;
+    }
+
+    private static int balanceOffset(long r) {
+        return (int) (r & SEGMENT_MASK) * RECORD + 8;
+    }
+
+    private static long spread(long account) {
+        long h = account * 0x9E3779B97F4A7C15L;//fibonacci hashing, dense account numbers still spread out
+        return h ^ (h >>> 32);
+    }
+}
@@ -0,0 +1,242 @@
+package common;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * executor with one worker thread per partition of accounts, a task given an account runs on the worker owning it,
+ * so the balances of a partition stay in the caches of one core instead of moving between all of them
+ * accounts go to partitions 16 at a time, a cache line of int balances, mixed so hot neighbours spread out
+ * every worker has its own MPSC queue: producers CAS themselves in as the tail, only the worker takes from the head
+ * a worker that stops closes its tail, so a task offered after that is refused instead of left in a dead queue
+ * an idle worker parks, a producer unparks it only if it said it was going to sleep
+ * with pin set, worker p pins itself to the p-th allowed cpu through Affinity
+ *
+ * @author SeanMcGrath
+ */
+public class PartitionedExecutor extends AbstractExecutorService {
+
+    private static final int BLOCK_SHIFT = 4;//accounts per block, 16
+    private static final int IDLE_YIELDS = 16;//looks before parking
+
+    private final Partition[] partitions;
+    private final AtomicInteger next = new AtomicInteger();//round robin for tasks without an account
+    private final CountDownLatch terminated;
+    private final AtomicInteger pinned = new AtomicInteger();
+    private volatile boolean shutdown;
+
+    /**
+     * @param partitions - worker threads
+     * @param pin        - pin every worker to its own cpu, where the system allows it
+     */
+    public PartitionedExecutor(int partitions, boolean pin) {
+        this.partitions = new Partition[partitions];
+        this.terminated = new CountDownLatch(partitions);
+        int[] cpus = pin ? Affinity.allowedCpus() : null;
+        for (int p = 0; p < partitions; p++) {
+            this.partitions[p] = new Partition(p, cpus == null ? -1 : cpus[p % cpus.length]);
+        }
+        for (Partition p : this.partitions) {
+            p.worker.start();
+        }
+    }
+
+    /**
+     * @param account    - account number
+     * @param partitions - number of partitions
+     * @return - partition owning the account
+     */
+    public static int partitionOf(long account, int partitions) {
+        long h = (account >>> BLOCK_SHIFT) * 0x9E3779B97F4A7C15L;
+        return (int) (((h >>> 32) * partitions) >>> 32);
+    }
+
+    public int getPartitions() {
+        return partitions.length;
+    }
+
+    /**
+     * @return - workers that managed to pin themselves so far
+     */
+    public int getPinned() {
+        return pinned.get();
+    }
+
+    /**
+     * runs the task on the worker owning the account
+     *
+     * @param account - account the task works on
+     * @param task    - task to run
+     */
+    public void execute(long account, Runnable task) {
+        submitTo(partitions[partitionOf(account, partitions.length)], task);
+    }
+
+    /**
+     * a task without an account goes to the workers in turn
+     */
+    @Override
+    public void execute(Runnable task) {
+        submitTo(partitions[Math.floorMod(next.getAndIncrement(), partitions.length)], task);
+    }
+
+    private void submitTo(Partition p, Runnable task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        if (shutdown || !p.offer(task)) {
+            throw new RejectedExecutionException("executor is shut down");
+        }
+    }
+
+    /**
+     * stops taking tasks, the workers run what is queued and then stop
+     */
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        for (Partition p : partitions) {
+            LockSupport.unpark(p.worker);
+        }
+    }
+
+    /**
+     * same as shutdown and interrupts the workers, tasks already queued still run,
+     * only the worker owning a queue may take from it
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown();
+        for (Partition p : partitions) {
+            p.worker.interrupt();
+        }
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return terminated.getCount() == 0;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+
+    //tail of a queue whose worker has stopped, never linked to
+    private static final Node CLOSED = new Node(null);
+
+    /**
+     * queue node, next is set once by the producer that linked the node after this one
+     */
+    private static final class Node {
+        Runnable task;
+        volatile Node next;
+
+        Node(Runnable task) {
+            this.task = task;
+        }
+    }
+
+    /**
+     * one worker and its MPSC queue
+     */
+    private final class Partition implements Runnable {
+        private final AtomicReference<Node> tail;
+        private Node head;//only the worker reads and moves it
+        private volatile boolean sleeping;
+        private final int cpu;
+        final Thread worker;
+
+        Partition(int index, int cpu) {
+            Node stub = new Node(null);
+            head = stub;
+            tail = new AtomicReference<>(stub);
+            this.cpu = cpu;
+            worker = new Thread(this, "partition-" + index);
+            worker.setDaemon(true);
+        }
+
+        /**
+         * @return - false if the worker has stopped and the task was not queued
+         */
+        boolean offer(Runnable task) {
+            Node n = new Node(task);
+            for (; ; ) {
+                Node t = tail.get();
+                if (t == CLOSED) {
+                    return false;
+                }
+                if (tail.compareAndSet(t, n)) {
+                    t.next = n;//the worker sees n once it is linked
+                    break;
+                }
+            }
+            if (sleeping) {//read after linking, the worker sets it before its last look
+                LockSupport.unpark(worker);
+            }
+            return true;
+        }
+
+        private Runnable poll() {
+            Node n = head.next;
+            if (n == null) {
+                return null;
+            }
+            head = n;//n becomes the stub
+            Runnable task = n.task;
+            n.task = null;
+            return task;
+        }
+
+        @Override
+        public void run() {
+            if (cpu >= 0 && Affinity.pin(cpu)) {
+                pinned.incrementAndGet();
+            }
+            try {
+                int idle = 0;
+                for (; ; ) {
+                    Runnable task = poll();
+                    if (task != null) {
+                        idle = 0;
+                        try {
+                            task.run();
+                        } catch (Throwable e) {//a failing task must not take the partition down
+                            Thread t = Thread.currentThread();
+                            t.getUncaughtExceptionHandler().uncaughtException(t, e);
+                        }
+                        continue;
+                    }
+                    if (shutdown && tail.compareAndSet(head, CLOSED)) {//nothing queued or being linked, refuse the rest
+                        return;
+                    }
+                    if (++idle < IDLE_YIELDS) {
+                        Thread.yield();
+                        continue;
+                    }
+                    sleeping = true;
+                    if (head.next == null && !shutdown) {//last look, a producer linking now sees sleeping
+                        LockSupport.park(this);
+                    }
+                    sleeping = false;
+                    Thread.interrupted();//only shutdownNow interrupts, and it also sets shutdown
+                }
+            } finally {
+                terminated.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package common;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * rebuilds the balances after a restart from the latest snapshot and the log records it does not hold
+ * replay runs on several threads, each owning a range of accounts and scanning the log tail for them,
+ * deltas add up in any order so the threads share nothing but the read only log
+ * the log is cut back to its last complete record, so a new TransactionLog can carry on from getLogEnd
+ *
+ * @author SeanMcGrath
+ */
+public class Recovery {
+
+    private static final int RECORD = TransactionLog.RECORD;
+
+    private final Snapshot snapshot;
+    private final IntBuffer balances;
+    private final long logStart;
+    private final long logEnd;
+    private final long segmentBytes;
+    private final long nanos;
+
+    private Recovery(Snapshot snapshot, IntBuffer balances, long logStart, long logEnd, long segmentBytes, long nanos) {
+        this.snapshot = snapshot;
+        this.balances = balances;
+        this.logStart = logStart;
+        this.logEnd = logEnd;
+        this.segmentBytes = segmentBytes;
+        this.nanos = nanos;
+    }
+
+    /**
+     * loads the latest snapshot, replays the log after it and puts every balance into the store
+     *
+     * @param snapshotDir - snapshot directory, may be empty or missing
+     * @param logDir      - transaction log directory, may be empty or missing
+     * @param accounts    - number of accounts, used when there is no snapshot
+     * @param store       - store to fill, accounts 0 to accounts-1
+     * @param threads     - replay threads
+     * @return - what was recovered
+     */
+    public static Recovery run(Path snapshotDir, Path logDir, int accounts, AccountStore store, int threads) {
+        long startTime = System.nanoTime();
+        Snapshot snapshot = Snapshot.latest(snapshotDir);
+        IntBuffer balances = snapshot == null ? IntBuffer.allocate(accounts) : snapshot.balances();
+        int n = snapshot == null ? accounts : snapshot.getAccounts();
+        long start = snapshot == null ? 0 : snapshot.minPosition();
+        try {
+            List<MappedByteBuffer> segments = new ArrayList<>();
+            long segmentBytes = mapSegments(logDir, start, segments);
+            long end = findEnd(segments, start, segmentBytes);
+            cut(logDir, segments, start, end, segmentBytes);
+
+            Thread[] workers = new Thread[Math.max(1, threads)];
+            for (int t = 0; t < workers.length; t++) {
+                int lo = (int) ((long) n * t / workers.length);
+                int hi = (int) ((long) n * (t + 1) / workers.length);
+                workers[t] = new Thread(() -> {
+                    replay(segments, start, end, segmentBytes, snapshot, balances, lo, hi);
+                    for (int a = lo; a < hi; a++) {
+                        if (balances.get(a) != AccountStore.MISSING) {//not held by this store when snapshotted
+                            store.put(a, balances.get(a));
+                        }
+                    }
+                }, "recovery-" + t);
+                workers[t].start();
+            }
+            for (Thread w : workers) {
+                w.join();
+            }
+            return new Recovery(snapshot, balances, start, end, segmentBytes, System.nanoTime() - startTime);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted during recovery", e);
+        }
+    }
+
+    /**
+     * maps every segment from the one holding start onwards, stops at the first missing file
+     *
+     * @return - segment size, the default if there is no log
+     */
+    private static long mapSegments(Path logDir, long start, List<MappedByteBuffer> segments) throws IOException {
+        long segmentBytes = TransactionLog.DEFAULT_SEGMENT;
+        Path first = null;
+        if (Files.isDirectory(logDir)) {
+            try (Stream<Path> files = Files.list(logDir)) {
+                first = files.filter(p -> p.getFileName().toString().startsWith("wal-")).sorted().findFirst().orElse(null);
+            }
+        }
+        if (first == null) {
+            return segmentBytes;
+        }
+        segmentBytes = Files.size(first);
+        for (long index = start / segmentBytes; ; index++) {
+            Path p = TransactionLog.segmentPath(logDir, index);
+            if (!Files.exists(p)) {
+                break;
+            }
+            try (FileChannel c = FileChannel.open(p, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer b = c.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+                b.order(ByteOrder.nativeOrder());
+                segments.add(b);
+            }
+        }
+        return segmentBytes;
+    }
+
+    /**
+     * @return - position after the last record of the complete prefix starting at start
+     */
+    private static long findEnd(List<MappedByteBuffer> segments, long start, long segmentBytes) {
+        long base = start / segmentBytes * segmentBytes;
+        long pos = start;
+        while (pos - base < segments.size() * segmentBytes) {
+            MappedByteBuffer b = segments.get((int) ((pos - base) / segmentBytes));
+            if (b.getInt((int) (pos % segmentBytes)) == 0) {
+                break;
+            }
+            pos += RECORD;
+        }
+        return pos;
+    }
+
+    /**
+     * zeroes whatever follows the end in its segment and deletes later segments,
+     * a record torn by the crash must not look complete once new records are written around it
+     */
+    private static void cut(Path logDir, List<MappedByteBuffer> segments, long start, long end, long segmentBytes) throws IOException {
+        long first = start / segmentBytes;
+        int last = (int) (end / segmentBytes - first);
+        if (last < segments.size()) {
+            MappedByteBuffer b = segments.get(last);
+            for (int off = (int) (end % segmentBytes); off < segmentBytes; off += 8) {
+                b.putLong(off, 0);
+            }
+            b.force();
+        }
+        for (int i = segments.size() - 1; i > last; i--) {
+            Files.deleteIfExists(TransactionLog.segmentPath(logDir, first + i));
+            segments.remove(i);
+        }
+    }
+
+    /**
+     * applies the records from start to end that touch accounts lo to hi-1 and are not in the snapshot yet
+     */
+    private static void replay(List<MappedByteBuffer> segments, long start, long end, long segmentBytes,
+                               Snapshot snapshot, IntBuffer balances, int lo, int hi) {
+        long base = start / segmentBytes * segmentBytes;
+        int mask = snapshot == null ? 0 : snapshot.getStripes() - 1;
+        for (long pos = start; pos < end; pos += RECORD) {
+            MappedByteBuffer b = segments.get((int) ((pos - base) / segmentBytes));
+            int off = (int) (pos % segmentBytes);
+            int type = b.getInt(off);
+            int amount = b.getInt(off + 4);
+            long account = b.getLong(off + 8);
+            switch (type) {
+                case TransactionLog.OPEN:
+                    if (owns(account, pos, lo, hi, snapshot, mask)) {
+                        balances.put((int) account, amount);
+                    }
+                    break;
+                case TransactionLog.DEPOSIT:
+                    apply(account, amount, pos, lo, hi, snapshot, mask, balances);
+                    break;
+                case TransactionLog.WITHDRAW:
+                    apply(account, -amount, pos, lo, hi, snapshot, mask, balances);
+                    break;
+                case TransactionLog.TRANSFER:
+                    apply(account, -amount, pos, lo, hi, snapshot, mask, balances);
+                    apply(b.getLong(off + 16), amount, pos, lo, hi, snapshot, mask, balances);
+                    break;
+                default:
+                    throw new IllegalStateException("bad log record type " + type + " at " + pos);
+            }
+        }
+    }
+
+    private static void apply(long account, int delta, long pos, int lo, int hi, Snapshot snapshot, int mask, IntBuffer balances) {
+        if (owns(account, pos, lo, hi, snapshot, mask)) {
+            int a = (int) account;
+            balances.put(a, balances.get(a) + delta);
+        }
+    }
+
+    /**
+     * @return - true if this thread replays the account and the snapshot does not hold the record yet
+     */
+    private static boolean owns(long account, long pos, int lo, int hi, Snapshot snapshot, int mask) {
+        return account >= lo && account < hi
+                && (snapshot == null || pos >= snapshot.position(Snapshot.stripeOf(account, mask)));
+    }
+
+    /**
+     * @return - balance of every account after replay
+     */
+    public IntBuffer getBalances() {
+        return balances;
+    }
+
+    /**
+     * @return - the snapshot recovery started from, null if there was none
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return - log position after the last recovered record, where new records go
+     */
+    public long getLogEnd() {
+        return logEnd;
+    }
+
+    public long getSegmentBytes() {
+        return segmentBytes;
+    }
+
+    /**
+     * @return - number of log records replayed
+     */
+    public long getReplayed() {
+        return (logEnd - logStart) / RECORD;
+    }
+
+    /**
+     * @return - time the whole recovery took
+     */
+    public long getNanos() {
+        return nanos;
+    }
+}
@@ -0,0 +1,73 @@
+package common;
+
+/**
+ * what one run of a BankManager did, from the first task created to the last user handed back
+ *
+ * @author SeanMcGrath
+ */
+public final class RunStats {
+
+    private final long operations;
+    private final long clients;
+    private final long nanos;
+    private final long blockedNanos;
+    private final long shed;
+
+    /**
+     * @param operations   - user operations applied
+     * @param clients      - client tasks started, fewer than operations when batching
+     * @param nanos        - wall clock time of the run
+     * @param blockedNanos - time the task creator waited because every user was busy
+     */
+    public RunStats(long operations, long clients, long nanos, long blockedNanos) {
+        this(operations, clients, nanos, blockedNanos, 0);
+    }
+
+    /**
+     * @param operations   - user operations created, shed ones included
+     * @param clients      - client tasks created, fewer than operations when batching
+     * @param nanos        - wall clock time of the run
+     * @param blockedNanos - time the task creator waited because every user was busy
+     * @param shed         - operations admission control refused, they never reached the bank
+     */
+    public RunStats(long operations, long clients, long nanos, long blockedNanos, long shed) {
+        this.operations = operations;
+        this.clients = clients;
+        this.nanos = nanos;
+        this.blockedNanos = blockedNanos;
+        this.shed = shed;
+    }
+
+    public long getOperations() {
+        return operations;
+    }
+
+    public long getClients() {
+        return clients;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    public long getBlockedNanos() {
+        return blockedNanos;
+    }
+
+    public long getShed() {
+        return shed;
+    }
+
+    /**
+     * @return - operations that reached the bank per second of wall clock time
+     */
+    public double getThroughput() {
+        return nanos == 0 ? 0 : (operations - shed) * 1e9 / nanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d ops by %d clients in %.1f ms, %.0f ops/s, creator blocked %.1f ms, shed %d",
+                operations, clients, nanos / 1e6, getThroughput(), blockedNanos / 1e6, shed);
+    }
+}
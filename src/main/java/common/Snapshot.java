@@ -0,0 +1,216 @@
+package common;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * balances of every account, copied one stripe at a time while writers keep running
+ * each stripe is copied while its writers are held off and remembers the log position at that moment,
+ * so a record belongs to the snapshot exactly when it is before the position of its account's stripe
+ * file layout: [long MAGIC][int accounts][int stripes][long position per stripe][int balance per account]
+ * the file is mapped privately when read, loading it copies nothing and recovery replays into the mapping
+ *
+ * @author SeanMcGrath
+ */
+public class Snapshot {
+
+    private static final long MAGIC = 0x534e4150534e4150L;
+
+    private final int accounts;
+    private final long[] positions;
+    private final IntBuffer balances;
+    private final Path file;
+
+    private Snapshot(Path file, int accounts, long[] positions, IntBuffer balances) {
+        this.file = file;
+        this.accounts = accounts;
+        this.positions = positions;
+        this.balances = balances;
+    }
+
+    /**
+     * stripe of an account, the same for locks, gates, snapshots and recovery
+     *
+     * @param account - account number
+     * @param mask    - number of stripes-1, stripes is a power of two
+     * @return - stripe from 0 to mask
+     */
+    public static int stripeOf(long account, int mask) {
+        int h = (int) (account ^ (account >>> 32));
+        h ^= h >>> 16;//spread high bits into the low ones used by the mask
+        return h & mask;
+    }
+
+    /**
+     * @param accounts - number of accounts
+     * @param stripes  - number of stripes, a power of two
+     * @return - account numbers of each stripe, so a stripe can be copied without walking every account
+     */
+    public static int[][] membersByStripe(int accounts, int stripes) {
+        int[] counts = new int[stripes];
+        for (int a = 0; a < accounts; a++) {
+            counts[stripeOf(a, stripes - 1)]++;
+        }
+        int[][] members = new int[stripes][];
+        for (int s = 0; s < stripes; s++) {
+            members[s] = new int[counts[s]];
+            counts[s] = 0;
+        }
+        for (int a = 0; a < accounts; a++) {
+            int s = stripeOf(a, stripes - 1);
+            members[s][counts[s]++] = a;
+        }
+        return members;
+    }
+
+    /**
+     * writes a snapshot next to a temp name and renames it into place, then deletes older snapshots
+     *
+     * @param dir       - snapshot directory, created if needed
+     * @param balances  - balance of every account
+     * @param positions - log position each stripe was copied at
+     * @return - the snapshot file
+     */
+    public static Path write(Path dir, int[] balances, long[] positions) {
+        long min = Long.MAX_VALUE;
+        for (long p : positions) {
+            min = Math.min(min, p);
+        }
+        int header = 16 + 8 * positions.length;
+        Path tmp = dir.resolve("snapshot.tmp");
+        Path file = dir.resolve(String.format("snapshot-%016x.snap", min));//hex keeps names in log order
+        try {
+            Files.createDirectories(dir);
+            try (FileChannel c = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer b = c.map(FileChannel.MapMode.READ_WRITE, 0, header + 4L * balances.length);
+                b.order(ByteOrder.nativeOrder());
+                b.putLong(MAGIC).putInt(balances.length).putInt(positions.length);
+                for (long p : positions) {
+                    b.putLong(p);
+                }
+                b.asIntBuffer().put(balances);
+                b.force();
+            }
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            try (DirectoryStream<Path> old = Files.newDirectoryStream(dir, "snapshot-*.snap")) {
+                for (Path p : old) {
+                    if (p.getFileName().toString().compareTo(file.getFileName().toString()) < 0) {
+                        Files.delete(p);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return file;
+    }
+
+    /**
+     * @param dir - snapshot directory
+     * @return - the newest snapshot in the directory, null if there is none
+     */
+    public static Snapshot latest(Path dir) {
+        if (!Files.isDirectory(dir)) {
+            return null;
+        }
+        Path newest = null;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "snapshot-*.snap")) {
+            for (Path p : files) {
+                if (newest == null || p.getFileName().toString().compareTo(newest.getFileName().toString()) > 0) {
+                    newest = p;
+                }
+            }
+            return newest == null ? null : read(newest);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Snapshot read(Path file) throws IOException {
+        try (FileChannel c = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            //private mapping, writes stay in this process and never reach the file
+            MappedByteBuffer b = c.map(FileChannel.MapMode.PRIVATE, 0, c.size());
+            b.order(ByteOrder.nativeOrder());
+            if (b.getLong() != MAGIC) {
+                throw new IOException("not a snapshot: " + file);
+            }
+            int accounts = b.getInt();
+            long[] positions = new long[b.getInt()];
+            for (int s = 0; s < positions.length; s++) {
+                positions[s] = b.getLong();
+            }
+            IntBuffer balances = b.slice().order(ByteOrder.nativeOrder()).asIntBuffer();
+            return new Snapshot(file, accounts, positions, balances);
+        }
+    }
+
+    /**
+     * takes a snapshot of the ledger every period on a daemon thread
+     *
+     * @param ledger - ledger to snapshot
+     * @param dir    - snapshot directory
+     * @param period - time between snapshots
+     * @param unit   - unit of period
+     * @return - the scheduler, shut it down to stop
+     */
+    public static ScheduledExecutorService every(Ledger ledger, Path dir, long period, TimeUnit unit) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> ledger.snapshot(dir), period, period, unit);
+        return scheduler;
+    }
+
+    public int getAccounts() {
+        return accounts;
+    }
+
+    public int getStripes() {
+        return positions.length;
+    }
+
+    /**
+     * @param stripe - stripe index
+     * @return - log position the stripe was copied at, its records from here on are not in the snapshot
+     */
+    public long position(int stripe) {
+        return positions[stripe];
+    }
+
+    /**
+     * @return - oldest log position recovery has to read from
+     */
+    public long minPosition() {
+        long min = Long.MAX_VALUE;
+        for (long p : positions) {
+            min = Math.min(min, p);
+        }
+        return min;
+    }
+
+    /**
+     * @return - balance of every account, backed by the private mapping of the file
+     */
+    public IntBuffer balances() {
+        return balances;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+}
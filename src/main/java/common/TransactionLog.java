@@ -0,0 +1,293 @@
+package common;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * append-only write-ahead log of ledger operations, in memory mapped segment files
+ * every record is 32 bytes: [int type][int amount][long account][long to][long record number]
+ * writers reserve their slot with one atomic add and fill it in without any lock,
+ * the type is written last so a record with a type is complete
+ * one flusher thread forces everything written so far in one go, so many writers share one force (group commit)
+ *
+ * @author SeanMcGrath
+ */
+public class TransactionLog implements Closeable {
+
+    /**
+     * NONE: records go to the mapped file and the OS writes them out whenever, survives a process crash only
+     * ASYNC: the flusher forces every flushInterval, writers never wait
+     * GROUP_SYNC: writers wait until a force covers their record, the flusher forces as soon as there is work
+     */
+    public enum Durability {NONE, ASYNC, GROUP_SYNC}
+
+    //record types
+    public static final int OPEN = 1;//account opened with amount as its balance
+    public static final int DEPOSIT = 2;
+    public static final int WITHDRAW = 3;
+    public static final int TRANSFER = 4;
+
+    public static final int RECORD = 32;
+    static final long DEFAULT_SEGMENT = 64L << 20;
+
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final Durability durability;
+    private final long flushIntervalNanos;
+
+    private final ConcurrentHashMap<Long, MappedByteBuffer> segments = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, FileChannel> channels = new ConcurrentHashMap<>();
+    private final AtomicLong tail;//next byte to hand out
+    private volatile long durable;//every record before this byte has been forced
+    private volatile boolean closed;
+    private final Thread flusher;
+
+    /**
+     * @param dir        - directory for the segment files, created if needed
+     * @param durability - when records are forced to disk
+     */
+    public TransactionLog(Path dir, Durability durability) {
+        this(dir, durability, DEFAULT_SEGMENT, TimeUnit.MILLISECONDS.toNanos(10), 0);
+    }
+
+    /**
+     * @param dir           - directory for the segment files, created if needed
+     * @param durability    - when records are forced to disk
+     * @param segmentBytes  - size of one segment file, a multiple of RECORD
+     * @param flushInterval - nanoseconds between forces for ASYNC
+     * @param start         - byte position of the first new record, from recovery, 0 for an empty log
+     */
+    public TransactionLog(Path dir, Durability durability, long segmentBytes, long flushInterval, long start) {
+        if (segmentBytes % RECORD != 0 || segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("segment size must be a multiple of " + RECORD + " and under 2GB");
+        }
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.dir = dir;
+        this.durability = durability;
+        this.segmentBytes = segmentBytes;
+        this.flushIntervalNanos = flushInterval;
+        this.tail = new AtomicLong(start);
+        this.durable = start;
+        if (durability == Durability.NONE) {
+            flusher = null;
+        } else {
+            flusher = new Thread(this::flushLoop, "transaction-log-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+    }
+
+    /**
+     * writes one record, never blocks on disk
+     *
+     * @param type    - OPEN, DEPOSIT, WITHDRAW or TRANSFER
+     * @param account - account number, the from account of a transfer
+     * @param to      - to account of a transfer, -1 otherwise
+     * @param amount  - amount of money
+     * @return - log position just past the record, give it to awaitDurable
+     */
+    public long append(int type, long account, long to, int amount) {
+        long pos = tail.getAndAdd(RECORD);
+        MappedByteBuffer b = segment(pos / segmentBytes);
+        int off = (int) (pos % segmentBytes);
+        b.putInt(off + 4, amount);
+        b.putLong(off + 8, account);
+        b.putLong(off + 16, to);
+        b.putLong(off + 24, pos / RECORD);
+        INTS.setRelease(b, off, type);//publishes the record to the flusher and to recovery
+        if (durability == Durability.GROUP_SYNC) {
+            LockSupport.unpark(flusher);
+        }
+        return pos + RECORD;
+    }
+
+    /**
+     * waits until every record up to the position is on disk, only GROUP_SYNC ever waits
+     *
+     * @param position - position returned by append
+     */
+    public void awaitDurable(long position) {
+        if (durability != Durability.GROUP_SYNC || durable >= position) {
+            return;
+        }
+        synchronized (this) {
+            while (durable < position && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * forces every record up to the position, whatever the durability
+     * records still being written are waited for, so only call it with positions that writers already hold
+     *
+     * @param position - log position, from append or position
+     */
+    public void sync(long position) {
+        while (durable < position && !closed) {
+            if (!flush()) {
+                Thread.yield();//a writer is between its reservation and its type
+            }
+        }
+    }
+
+    /**
+     * deletes the segment files that only hold records before the position, they are no longer needed for recovery
+     *
+     * @param position - oldest log position recovery may still read
+     */
+    public void release(long position) {
+        //walk back from the newest unneeded segment, stops at the first one a previous release already deleted
+        for (long index = position / segmentBytes - 1; index >= 0; index--) {
+            segments.remove(index);
+            FileChannel c = channels.remove(index);
+            try {
+                if (c != null) {
+                    c.close();
+                }
+                if (!Files.deleteIfExists(segmentPath(dir, index))) {
+                    return;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * @return - position the next record will be written at
+     */
+    public long position() {
+        return tail.get();
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    public Path getDirectory() {
+        return dir;
+    }
+
+    public long getSegmentBytes() {
+        return segmentBytes;
+    }
+
+    /**
+     * forces what is complete and unmaps nothing, the files stay valid for recovery
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (flusher != null) {
+            LockSupport.unpark(flusher);
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+        synchronized (this) {
+            notifyAll();
+        }
+        for (FileChannel c : channels.values()) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void flushLoop() {
+        while (!closed) {
+            if (!flush()) {
+                //GROUP_SYNC is woken by append, the timeout only covers a wake up that came before the park
+                LockSupport.parkNanos(this, durability == Durability.ASYNC ? flushIntervalNanos : TimeUnit.MILLISECONDS.toNanos(1));
+            } else if (durability == Durability.ASYNC) {
+                LockSupport.parkNanos(this, flushIntervalNanos);
+            }
+        }
+    }
+
+    /**
+     * forces the complete records after the durable position, one force per segment touched
+     *
+     * @return - true if anything was forced
+     */
+    private boolean flush() {
+        long from = durable;
+        long to = from;
+        long end = tail.get();
+        while (to < end && (int) INTS.getAcquire(segment(to / segmentBytes), (int) (to % segmentBytes)) != 0) {
+            to += RECORD;//stop at the first record still being written, later ones wait for the next flush
+        }
+        if (to == from) {
+            return false;
+        }
+        for (long pos = from; pos < to; ) {
+            long seg = pos / segmentBytes;
+            long segEnd = Math.min(to, (seg + 1) * segmentBytes);
+            int off = (int) (pos % segmentBytes);
+            segment(seg).force(off, (int) (segEnd - pos));
+            pos = segEnd;
+        }
+        synchronized (this) {
+            durable = Math.max(durable, to);//sync can flush alongside the flusher
+            notifyAll();
+        }
+        return true;
+    }
+
+    private MappedByteBuffer segment(long index) {
+        MappedByteBuffer b = segments.get(index);
+        return b != null ? b : openSegment(index);
+    }
+
+    private synchronized MappedByteBuffer openSegment(long index) {
+        MappedByteBuffer b = segments.get(index);
+        if (b != null) {
+            return b;
+        }
+        try {
+            FileChannel c = FileChannel.open(segmentPath(dir, index),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            b = c.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            b.order(ByteOrder.nativeOrder());
+            channels.put(index, c);
+            segments.put(index, b);
+            return b;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static Path segmentPath(Path dir, long index) {
+        return dir.resolve(String.format("wal-%08d.log", index));
+    }
+}
@@ -0,0 +1,265 @@
+package common;
+
+import java.util.SplittableRandom;
+
+/**
+ * what a simulator run or benchmark does: how many accounts, how many operations,
+ * the mix of tasks and how accounts are picked
+ * everything random comes from generators seeded from one seed: the same seed opens the same balances and wallets
+ * and creates the same tasks, accounts and amounts, only the interleaving of the threads differs between runs
+ *
+ * @author SeanMcGrath
+ */
+public class Workload {
+
+    /**
+     * how accounts are picked
+     * UNIFORM: every account is as likely
+     * ZIPF: account k is picked with probability proportional to 1/(k+1)^theta, account 0 is the hottest
+     * HOTSPOT: the first hotFraction of accounts get hotPercent of all picks
+     */
+    public enum Distribution {UNIFORM, ZIPF, HOTSPOT}
+
+    //task numbers, as handed to clients
+    public static final int WITHDRAW = 1;//withdraw for purchase(read+write)
+    public static final int DEPOSIT = 2;//deposit money from the user's wallet
+    public static final int PAY = 3;//receive pay(no 'database' access, pay is in local user not bank)
+    public static final int TRANSFER = 4;//transfer from the user's account to another account
+    public static final int BALANCE = 5;//read the balance of the user's account(read only)
+
+    //streams the bank opens accounts from, benchmark threads use 0 and up
+    public static final long BALANCES = -1;//opening balances, the same in every implementation
+    public static final long WALLETS = -2;//opening on-person money
+    public static final long SHUFFLE = -3;//order users start out free in
+
+    private int accounts = 500;
+    private int operations = 1000;
+    //task mix in percent, whatever is left over is PAY
+    private int withdrawPercent = 25;
+    private int depositPercent = 25;
+    private int transferPercent = 25;
+    private int balancePercent = 0;
+    private Distribution distribution = Distribution.UNIFORM;
+    private double zipfTheta = 0.99;
+    private double hotFraction = 0.01;
+    private int hotPercent = 90;
+    private long seed = 42;
+
+    //zipf constants, worked out once per account count and theta
+    private double zetaN;
+    private double zipfEta;
+    private double zipfAlpha;
+    private double zipfHalfPow;
+    private boolean zipfReady;
+
+    public int getAccounts() {
+        return accounts;
+    }
+
+    /**
+     * @param accounts - number of accounts and simulated users, account numbers run from 0 to accounts-1
+     */
+    public void setAccounts(int accounts) {
+        this.accounts = accounts;
+        zipfReady = false;
+    }
+
+    public int getOperations() {
+        return operations;
+    }
+
+    /**
+     * @param operations - tasks a simulator run creates
+     */
+    public void setOperations(int operations) {
+        this.operations = operations;
+    }
+
+    /**
+     * sets the task mix without balance reads, the rest of 100 percent is PAY
+     *
+     * @param withdrawPercent - percent of withdrawals
+     * @param depositPercent  - percent of deposits
+     * @param transferPercent - percent of transfers
+     */
+    public void setMix(int withdrawPercent, int depositPercent, int transferPercent) {
+        setMix(withdrawPercent, depositPercent, transferPercent, 0);
+    }
+
+    /**
+     * sets the task mix, the rest of 100 percent is PAY
+     *
+     * @param withdrawPercent - percent of withdrawals
+     * @param depositPercent  - percent of deposits
+     * @param transferPercent - percent of transfers
+     * @param balancePercent  - percent of balance reads
+     */
+    public void setMix(int withdrawPercent, int depositPercent, int transferPercent, int balancePercent) {
+        if (withdrawPercent < 0 || depositPercent < 0 || transferPercent < 0 || balancePercent < 0
+                || withdrawPercent + depositPercent + transferPercent + balancePercent > 100) {
+            throw new IllegalArgumentException("task mix must be positive and add up to at most 100 percent");
+        }
+        this.withdrawPercent = withdrawPercent;
+        this.depositPercent = depositPercent;
+        this.transferPercent = transferPercent;
+        this.balancePercent = balancePercent;
+    }
+
+    /**
+     * the read heavy mix of real traffic: 90% balance reads, 3% each of withdrawals, deposits and transfers, 1% pay
+     */
+    public void setReadHeavy() {
+        setMix(3, 3, 3, 90);
+    }
+
+    public Distribution getDistribution() {
+        return distribution;
+    }
+
+    public void setDistribution(Distribution distribution) {
+        this.distribution = distribution;
+    }
+
+    /**
+     * @param theta - zipf skew, 0 is uniform, must stay below 1
+     */
+    public void setZipfTheta(double theta) {
+        if (theta < 0 || theta >= 1) {
+            throw new IllegalArgumentException("zipf theta must be in [0,1)");
+        }
+        this.zipfTheta = theta;
+        zipfReady = false;
+    }
+
+    /**
+     * @param hotFraction - fraction of accounts that are hot, at least one account is
+     * @param hotPercent  - percent of picks that land on a hot account
+     */
+    public void setHotspot(double hotFraction, int hotPercent) {
+        this.hotFraction = hotFraction;
+        this.hotPercent = hotPercent;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @param stream - which stream of the seed, give every thread its own
+     * @return - a new generator, not thread safe
+     */
+    public Generator newGenerator(long stream) {
+        if (distribution == Distribution.ZIPF) {
+            prepareZipf();
+        }
+        return new Generator(new SplittableRandom(seed ^ (stream * 0x9E3779B97F4A7C15L)));
+    }
+
+    /**
+     * gray et al. "quickly generating billion-record synthetic databases", as used by YCSB
+     * O(accounts) once, then O(1) per pick
+     */
+    private synchronized void prepareZipf() {
+        if (zipfReady) {
+            return;
+        }
+        double zeta = 0;
+        for (int i = 1; i <= accounts; i++) {
+            zeta += 1 / Math.pow(i, zipfTheta);
+        }
+        double zeta2 = 1 + 1 / Math.pow(2, zipfTheta);
+        zetaN = zeta;
+        zipfAlpha = 1 / (1 - zipfTheta);
+        zipfEta = (1 - Math.pow(2.0 / accounts, 1 - zipfTheta)) / (1 - zeta2 / zeta);
+        zipfHalfPow = 1 + Math.pow(0.5, zipfTheta);
+        zipfReady = true;
+    }
+
+    /**
+     * stream of tasks and accounts for one thread
+     */
+    public class Generator {
+
+        private final SplittableRandom random;
+
+        Generator(SplittableRandom random) {
+            this.random = random;
+        }
+
+        /**
+         * @return - WITHDRAW, DEPOSIT, PAY, TRANSFER or BALANCE, following the task mix
+         */
+        public int nextTask() {
+            int r = random.nextInt(100);
+            if (r < withdrawPercent) {
+                return WITHDRAW;
+            }
+            r -= withdrawPercent;
+            if (r < depositPercent) {
+                return DEPOSIT;
+            }
+            r -= depositPercent;
+            if (r < transferPercent) {
+                return TRANSFER;
+            }
+            r -= transferPercent;
+            if (r < balancePercent) {
+                return BALANCE;
+            }
+            return PAY;
+        }
+
+        /**
+         * @return - an account number following the distribution
+         */
+        public int nextAccount() {
+            switch (distribution) {
+                case ZIPF: {
+                    double u = random.nextDouble();
+                    double uz = u * zetaN;
+                    if (uz < 1) {
+                        return 0;
+                    }
+                    if (uz < zipfHalfPow) {
+                        return 1;
+                    }
+                    return (int) Math.min(accounts - 1, accounts * Math.pow(zipfEta * u - zipfEta + 1, zipfAlpha));
+                }
+                case HOTSPOT: {
+                    int hot = Math.max(1, (int) (accounts * hotFraction));
+                    if (random.nextInt(100) < hotPercent) {
+                        return random.nextInt(hot);
+                    }
+                    return random.nextInt(accounts);
+                }
+                default:
+                    return random.nextInt(accounts);
+            }
+        }
+
+        /**
+         * @param bound - upper bound, exclusive
+         * @return - a number from 0 to bound-1, from this generator's stream
+         */
+        public int nextInt(int bound) {
+            return random.nextInt(bound);
+        }
+
+        /**
+         * @param origin - lower bound, inclusive
+         * @param bound  - upper bound, exclusive
+         * @return - a number from origin to bound-1, from this generator's stream
+         */
+        public int nextInt(int origin, int bound) {
+            return random.nextInt(origin, bound);
+        }
+
+        public boolean nextBoolean() {
+            return random.nextBoolean();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package common;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * lets a snapshot hold one stripe still for ledgers whose writers never lock (CAS based)
+ * writers of a stripe only count themselves in and out, they never wait on each other
+ * a frozen stripe lets its writers drain and keeps new ones out until it is thawed
+ * per stripe: 2 * writers inside, +1 while frozen
+ * only one thread may freeze at a time, and it only ever holds one stripe
+ *
+ * @author SeanMcGrath
+ */
+public class WriteGate {
+
+    private static final int PAD = 16;//ints per stripe, keeps each counter on its own cache line
+
+    private final AtomicIntegerArray gates;
+    private final int mask;
+
+    /**
+     * @param stripes - number of stripes, rounded up to a power of two
+     */
+    public WriteGate(int stripes) {
+        int n = 1;
+        while (n < stripes) {
+            n <<= 1;
+        }
+        mask = n - 1;
+        gates = new AtomicIntegerArray(n * PAD);
+    }
+
+    public int getStripes() {
+        return mask + 1;
+    }
+
+    /**
+     * @param account - account number
+     * @return - stripe of the account
+     */
+    public int stripeOf(long account) {
+        return Snapshot.stripeOf(account, mask);
+    }
+
+    /**
+     * counts a writer into the stripe, waits while it is frozen
+     *
+     * @param s - stripe from stripeOf
+     */
+    public void enter(int s) {
+        int i = s * PAD;
+        for (; ; ) {
+            int g = gates.get(i);
+            if ((g & 1) == 0 && gates.compareAndSet(i, g, g + 2)) {
+                return;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    public void exit(int s) {
+        gates.addAndGet(s * PAD, -2);
+    }
+
+    /**
+     * keeps new writers out of the stripe and waits for the ones inside to leave
+     *
+     * @param s - stripe index
+     */
+    public void freeze(int s) {
+        int i = s * PAD;
+        gates.addAndGet(i, 1);
+        while (gates.get(i) != 1) {
+            Thread.onSpinWait();
+        }
+    }
+
+    public void thaw(int s) {
+        gates.addAndGet(s * PAD, -1);
+    }
+}
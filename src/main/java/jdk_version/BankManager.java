@@ -1,21 +1,86 @@
 package jdk_version;
 
+import common.AccountCells;
+import common.Admission;
+import common.AccountStore;
+import common.BankMetrics;
+import common.Customers;
+import common.Batch;
+import common.Bulk;
+import common.ExecutorMode;
+import common.FreeAccountPool;
+import common.Ledger;
+import common.PartitionedExecutor;
+import common.Recovery;
+import common.RunStats;
+import common.Snapshot;
+import common.TransactionLog;
+import common.Workload;
+import common.WriteGate;
+
+import java.nio.file.Path;
+
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntPredicate;
+import java.util.function.IntToLongFunction;
+import java.util.function.IntUnaryOperator;
+import java.util.function.LongBinaryOperator;
 
 /**
  * @author SeanMcGrath
  */
-public class BankManager implements Runnable {
+public class BankManager implements Runnable, Ledger {
+
+    //account number to balance, a jdk ConcurrentHashMap unless another store is given
+    private final AccountStore bankDatabase;
+    //the store when it is AccountCells, withdrawals then check holds and overdraft limits in one CAS, null otherwise
+    private final AccountCells cells;
+    private final Workload workload;//number of users, number of tasks and what they do
+    private final Customers customers;//on-person money of every user, indexed by account number
+    private FreeAccountPool freeUsers;//users that are not in a running task
+
+    private int batchSize = 1;//users per task, more than 1 sends them through applyBatch
+    private ExecutorMode executorMode = ExecutorMode.CACHED;//what client tasks run on
+    private volatile Admission admission;//bounds client tasks in flight, null for only the number of users
+    private long ioLatencyMicros = 0;//simulated database round trip of every client
+    private volatile TransactionLog transactionLog;//write-ahead log of every change, null for none
+    private volatile BankMetrics metrics;//op counts and latencies, null for none
+    private volatile RunStats lastRun;
+    private ForkJoinPool bulkPool = ForkJoinPool.commonPool();//runs bulk jobs over every account
+    //of the running run, a client hands its users back through them, see handBack
+    private volatile Semaphore freePermits = new Semaphore(0);
+    private volatile CountDownLatch pending = new CountDownLatch(0);
+    private final WriteGate gate = new WriteGate(64);//lets snapshots hold a stripe still while logging
+
+    public BankManager() {
+        this(new Workload());
+    }
 
-    private final int MAX_PEOPLE = 500;
+    /**
+     * @param workload - users and tasks of a run
+     */
+    public BankManager(Workload workload) {
+        this(new ConcurrentHashMapAccountStore(workload.getAccounts()), workload);
+    }
 
-    private ConcurrentHashMap<String, AtomicInteger> bankDatabase = new ConcurrentHashMap<>();
-    private Person[] people = new Person[MAX_PEOPLE];
-    String[] runningTasks = new String[MAX_PEOPLE];//list of user id's that are running at any given time
+    /**
+     * @param store - where account balances are kept
+     */
+    public BankManager(AccountStore store) {
+        this(store, new Workload());
+    }
 
-    private BlockingQueue<Person> finishedTasks = new ArrayBlockingQueue<>(MAX_PEOPLE);
+    /**
+     * @param store    - where account balances are kept
+     * @param workload - users and tasks of a run
+     */
+    public BankManager(AccountStore store, Workload workload) {
+        bankDatabase = store;
+        cells = store instanceof AccountCells ? (AccountCells) store : null;
+        this.workload = workload;
+        customers = new Customers(workload.getAccounts());
+    }
 
     /**
      * initialize
@@ -23,240 +88,865 @@ public class BankManager implements Runnable {
      * tasks will simulate stripped-down bank system + users
      */
     public void run() {
+        initialize();
+        lastRun = execute();
+    }
+
+    /**
+     * @return - stats of the last completed run, null before the first
+     */
+    public RunStats getLastRun() {
+        return lastRun;
+    }
+
+    /**
+     * sets how many users the task creator groups into one batch client, 1 runs a client per user
+     *
+     * @param batchSize - users per batch
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * @param mode - what the task creator runs client tasks on
+     */
+    public void setExecutorMode(ExecutorMode mode) {
+        this.executorMode = mode;
+    }
+
+    /**
+     * @param pool - what applyInterest, sweepFees and aggregate run on, the common pool unless set
+     */
+    public void setBulkPool(ForkJoinPool pool) {
+        this.bulkPool = pool;
+    }
+
+    /**
+     * puts client tasks through admission control, so a run keeps at most its limit of tasks in flight
+     * instead of one per user, and a CACHED executor at most that many threads
+     *
+     * @param admission - limit and policy for client tasks, null for none
+     */
+    public void setAdmission(Admission admission) {
+        this.admission = admission;
+    }
+
+    public Admission getAdmission() {
+        return admission;
+    }
+
+    /**
+     * sets a blocking wait every client does before using the bank, standing in for a database round trip
+     *
+     * @param micros - wait in microseconds, 0 for none
+     */
+    public void setIoLatency(long micros) {
+        this.ioLatencyMicros = micros;
+    }
+
+    /**
+     * blocks the calling client for the configured io latency
+     * sleeping parks a virtual thread without holding on to its carrier, like real socket io would
+     */
+    void simulateIo() {
+        if (ioLatencyMicros <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.MICROSECONDS.sleep(ioLatencyMicros);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * counts and times every ledger op from now on, and reports how many users are busy and how full the executor is
+     *
+     * @param metrics - where to record, null for none
+     */
+    public void setMetrics(BankMetrics metrics) {
+        if (metrics != null) {
+            metrics.setBusyUsers(() -> customers.size() - freePermits.availablePermits());
+        }
+        this.metrics = metrics;
+    }
+
+    public BankMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * makes every deposit, withdrawal and transfer from now on go through a write-ahead log
+     *
+     * @param log - log to write to, null for none
+     */
+    public void setTransactionLog(TransactionLog log) {
+        this.transactionLog = log;
+    }
+
+    /**
+     * @return - the log in use, the one opened by recover after a recovery, close it on shutdown
+     */
+    public TransactionLog getTransactionLog() {
+        return transactionLog;
+    }
+
+    /**
+     * @return - number of accounts, account numbers run from 0 to this-1
+     */
+    @Override
+    public int getAccounts() {
+        return customers.size();
+    }
+
+    /**
+     * create users and their bank accounts without running any tasks
+     */
+    public void initialize() {
         initializeUsers();
         initializeDatabase();
-        execute();
+    }
+
+    /**
+     * create users and restore their accounts from the latest snapshot and the log after it,
+     * then keep logging to the same log
+     *
+     * @param snapshotDir - where snapshots were written
+     * @param logDir      - where the transaction log was written
+     * @param durability  - durability of the log from now on
+     * @return - what was recovered
+     */
+    public Recovery recover(Path snapshotDir, Path logDir, TransactionLog.Durability durability) {
+        initializeUsers();
+        Recovery recovery = Recovery.run(snapshotDir, logDir, customers.size(), bankDatabase,
+                Runtime.getRuntime().availableProcessors());
+        setTransactionLog(new TransactionLog(logDir, durability, recovery.getSegmentBytes(),
+                TimeUnit.MILLISECONDS.toNanos(10), recovery.getLogEnd()));
+        return recovery;
+    }
+
+    /**
+     * copies every balance one gate stripe at a time, only writers of the stripe being copied wait
+     * the log is forced up to the snapshot and the segments it no longer needs are deleted
+     *
+     * @param dir - snapshot directory
+     * @return - the snapshot file
+     */
+    @Override
+    public synchronized Path snapshot(Path dir) {
+        TransactionLog log = transactionLog;
+        int stripes = gate.getStripes();
+        int[][] members = Snapshot.membersByStripe(customers.size(), stripes);
+        int[] balances = new int[customers.size()];
+        long[] positions = new long[stripes];
+        for (int s = 0; s < stripes; s++) {
+            gate.freeze(s);
+            for (int id : members[s]) {
+                balances[id] = bankDatabase.get(id);
+            }
+            positions[s] = log == null ? 0 : log.position();//every record of this stripe before here is in balances
+            gate.thaw(s);
+        }
+        if (log != null) {
+            log.sync(positions[stripes - 1]);//the log must never end before the snapshot after a crash
+        }
+        Path file = Snapshot.write(dir, balances, positions);
+        if (log != null) {
+            log.release(positions[0]);//older snapshots are gone, nothing reads the log before this
+        }
+        return file;
     }
 
     /**
      * adds deposit amount to current stored money
+     * updated in place, no lost updates and no allocation
      *
-     * @param id     - user id
+     * @param id     - user account number
      * @param amount - amount to deposit
      */
-    public void deposit(String id, int amount) {//read/write
-        bankDatabase.put(id, new AtomicInteger(bankDatabase.get(id).get() + amount));
+    @Override
+    public void deposit(long id, int amount) {//read/write
+        BankMetrics m = metrics;
+        if (m == null) {
+            doDeposit(id, amount);
+            return;
+        }
+        BankMetrics.Recorder r = m.recorder();
+        long t = r.start();
+        doDeposit(id, amount);
+        r.record(BankMetrics.DEPOSIT, t, true);
+    }
+
+    private void doDeposit(long id, int amount) {
+        int g = enterGate(id);
+        long position = -1;
+        if (bankDatabase.addAndGet(id, amount) != AccountStore.MISSING) {//nothing to log for a missing account
+            position = log(TransactionLog.DEPOSIT, id, -1, amount);
+        }
+        exitGate(g);
+        if (position != -1) {
+            commit(position);
+        }
     }
 
     /**
      * withdraws amount from bank
      * if amount is not enough returns false without withdrawing
+     * CAS loop so two withdrawals can never both take the same money
      *
-     * @param id     - user id
+     * @param id     - user account number
      * @param amount - amount to withdraw
      * @return - true if withdrawn successfully, false otherwise
      */
-    public boolean withdraw(String id, int amount) {//read only or read/write
-        AtomicInteger currentAmount = bankDatabase.get(id);
-        if (currentAmount.get() - amount > 0) {
-            //enough money to withdraw, so attempt withdrawal
-            bankDatabase.put(id, new AtomicInteger(currentAmount.get() - amount));
-            return true;
+    @Override
+    public boolean withdraw(long id, int amount) {//read only or read/write
+        BankMetrics m = metrics;
+        if (m == null) {
+            return doWithdraw(id, amount);
         }
-        return false;
+        BankMetrics.Recorder r = m.recorder();
+        long t = r.start();
+        boolean result = doWithdraw(id, amount);
+        r.record(BankMetrics.WITHDRAW, t, result);
+        return result;
     }
 
+    private boolean doWithdraw(long id, int amount) {
+        int g = enterGate(id);
+        long position = -1;
+        if (take(id, amount)) {
+            position = log(TransactionLog.WITHDRAW, id, -1, amount);
+        }
+        exitGate(g);
+        if (position == -1) {
+            return false;
+        }
+        commit(position);
+        return true;
+    }
 
     /**
-     * initialize n users into people array
+     * CAS loop that takes amount out of the account if it has more than amount
+     * on AccountCells it is the cell's tryWithdraw instead, which may empty the account or use its overdraft
+     *
+     * @return - true if taken
      */
-    private void initializeUsers() {
-        for (int i = 0; i < MAX_PEOPLE; i++) {
-            Person temp = new Person(Integer.toString(i));
-            people[i] = temp;
+    private boolean take(long id, int amount) {
+        if (cells != null) {
+            return cells.tryWithdraw(id, amount);
+        }
+        for (; ; ) {
+            int currentAmount = bankDatabase.get(id);
+            if (currentAmount == AccountStore.MISSING || currentAmount - amount <= 0) {
+                return false;
+            }
+            //enough money to withdraw, so attempt withdrawal, retry if someone else changed the balance
+            if (bankDatabase.compareAndSet(id, currentAmount, currentAmount - amount)) {
+                return true;
+            }
+        }
+    }
+
+
+    /**
+     * reserves amount on the account for a later capture, the money stays in the balance but cannot be withdrawn
+     * holds are not logged, only captures are, so a recovery comes back with no holds
+     *
+     * @param id     - user account number
+     * @param amount - amount to hold
+     * @return - true if held, false if the account does not have it available
+     */
+    public boolean hold(long id, int amount) {
+        return cells().hold(id, amount);
+    }
+
+    /**
+     * takes money that was held on the account, cannot fail for lack of money
+     *
+     * @param id     - user account number
+     * @param amount - amount to take, at most what is held
+     * @return - true if taken, false if less than amount is held
+     */
+    public boolean capture(long id, int amount) {
+        AccountCells c = cells();
+        int g = enterGate(id);
+        long position = -1;
+        if (c.capture(id, amount)) {
+            position = log(TransactionLog.WITHDRAW, id, -1, amount);
         }
+        exitGate(g);
+        if (position == -1) {
+            return false;
+        }
+        commit(position);
+        return true;
+    }
+
+    /**
+     * gives held money back without taking it
+     *
+     * @param id     - user account number
+     * @param amount - amount to release, at most what is held
+     * @return - true if released, false if less than amount is held
+     */
+    public boolean release(long id, int amount) {
+        return cells().release(id, amount);
+    }
+
+    /**
+     * @param id    - user account number
+     * @param limit - how far below zero withdrawals may take the account
+     */
+    public void setOverdraftLimit(long id, int limit) {
+        cells().setOverdraftLimit(id, limit);
+    }
 
-        //set runningtasks to default of null
-        for(int i=0;i<runningTasks.length;i++)
-        {
-            runningTasks[i]= null;
+    private AccountCells cells() {
+        if (cells == null) {
+            throw new UnsupportedOperationException("holds and overdrafts need an AccountCells store");
         }
+        return cells;
     }
 
     /**
-     * initialize database with account numbers and initial money
+     * reads the balance, a plain volatile read of the account's AtomicInteger
+     *
+     * @param id - user account number
+     * @return - current balance, AccountStore.MISSING if there is no such account
      */
-    private void initializeDatabase() {
-        for (Person p: people) {
-            //make database accounts for each person, initialize with random money from $1.00-$19,999.99
-            bankDatabase.put(p.getAccountNumber(), new AtomicInteger(ThreadLocalRandom.current().nextInt(1,2000000)));
+    @Override
+    public int getBalance(long id) {
+        BankMetrics m = metrics;
+        if (m == null) {
+            return doGetBalance(id);
         }
+        BankMetrics.Recorder r = m.recorder();
+        long t = r.start();
+        int result = doGetBalance(id);
+        r.record(BankMetrics.BALANCE, t, true);
+        return result;
+    }
+
+    private int doGetBalance(long id) {
+        return bankDatabase.get(id);
     }
 
-    private void execute() {
-        ExecutorService executor = Executors.newFixedThreadPool(2);
-        AtomicBoolean doRun = new AtomicBoolean(true);
+    /**
+     * moves amount from one account to another, all or nothing
+     * the withdrawal is a CAS that fails without changing anything, the deposit after it cannot fail
+     * no locks are held so there is nothing to deadlock on, money can be seen in flight between the two steps
+     *
+     * @param from   - account number to take money from
+     * @param to     - account number to give money to
+     * @param amount - amount to move
+     * @return - true if moved, false if from does not have more than amount or to does not exist
+     */
+    @Override
+    public boolean transfer(long from, long to, int amount) {
+        BankMetrics m = metrics;
+        if (m == null) {
+            return doTransfer(from, to, amount);
+        }
+        BankMetrics.Recorder r = m.recorder();
+        long t = r.start();
+        boolean result = doTransfer(from, to, amount);
+        r.record(BankMetrics.TRANSFER, t, result);
+        return result;
+    }
 
-        Runnable taskCreator = () -> {//creates and runs tasks
-            ExecutorService taskExecutor = Executors.newCachedThreadPool();
+    private boolean doTransfer(long from, long to, int amount) {
+        int gf = enterGate(from);
+        int gt = gf >= 0 && gate.stripeOf(to) != gf ? enterGate(to) : -1;
+        long position = -1;
+        //accounts are never closed, so a to that exists now still takes the deposit
+        if (bankDatabase.get(to) != AccountStore.MISSING && take(from, amount)) {
+            bankDatabase.addAndGet(to, amount);
+            position = log(TransactionLog.TRANSFER, from, to, amount);
+        }
+        exitGate(gt);
+        exitGate(gf);
+        if (position == -1) {
+            return false;
+        }
+        commit(position);
+        return true;
+    }
 
-            for (int i = 0; i < 1000; i++) {//try 1000 tasks, max 500 concurrently running
-                int user = getOpenUser();
-                Client temp = new Client(this, people[user], decideTask(), finishedTasks);
-                for (int j = 0; j < runningTasks.length; j++) {
-                    if(runningTasks[j] == null){
-                        runningTasks[j] = people[user].getAccountNumber();
-                    }
+
+    /**
+     * applies every deposit and withdrawal in the batch
+     * there are no locks to group by, every op is its own CAS on the account
+     *
+     * @param batch - ops to apply, the result of every op is written back into it
+     * @return - number of ops that were not refused
+     */
+    @Override
+    public int applyBatch(Batch batch) {
+        BankMetrics m = metrics;
+        if (m == null) {
+            return doApplyBatch(batch);
+        }
+        BankMetrics.Recorder r = m.recorder();
+        long t = r.start();
+        int result = doApplyBatch(batch);
+        r.record(BankMetrics.BATCH, t, true);
+        return result;
+    }
+
+    private int doApplyBatch(Batch batch) {
+        int applied = 0;
+        long position = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            long id = batch.account(i);
+            int delta = batch.delta(i);
+            int result = Batch.REFUSED;
+            int g = enterGate(id);
+            if (delta >= 0) {
+                result = bankDatabase.addAndGet(id, delta);
+            } else if (cells != null) {
+                if (cells.tryWithdraw(id, -delta)) {
+                    result = bankDatabase.get(id);//balance just after, another op may have got in
                 }
-                taskExecutor.execute(temp);
-            }
-            doRun.set(false);
-            taskExecutor.shutdown();
-            while(!taskExecutor.isShutdown()){
-
-            }//wait for executor to shutdown
-        };
-        Runnable taskListener = () -> {//listens for task completions and removes them from list of running tasks, as well as updates people list with new info
-            while (doRun.get()) {
-                try {
-                    Person done = finishedTasks.poll(1, TimeUnit.SECONDS);
-                    if(done != null) {
-                        //replace old memory of person
-                        for (int i = 0; i < people.length; i++) {
-                            if (done.getAccountNumber() == people[i].getAccountNumber()) {
-                                people[i] = done;
-                            }
-                        }
-                        //remove person from list of running tasks, so new ones can be made of them
-                        for (int i = 0; i < runningTasks.length; i++) {
-                            if (done.getAccountNumber() == runningTasks[i]) {
-                                runningTasks[i] = null;
-                            }
-                        }
-                    } else {
-                        doRun.set(false);
+            } else {
+                for (; ; ) {
+                    int currentAmount = bankDatabase.get(id);
+                    if (currentAmount == AccountStore.MISSING || currentAmount + delta <= 0) {//same rule as withdraw
+                        break;
+                    }
+                    if (bankDatabase.compareAndSet(id, currentAmount, currentAmount + delta)) {
+                        result = currentAmount + delta;
+                        break;
                     }
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                    System.out.println("exe stack");
                 }
             }
-        };
+            if (result != Batch.REFUSED) {
+                position = delta >= 0 ? log(TransactionLog.DEPOSIT, id, -1, delta) : log(TransactionLog.WITHDRAW, id, -1, -delta);
+                applied++;
+            }
+            exitGate(g);
+            batch.setResult(i, result);
+        }
+        commit(position);//one wait for the whole batch
+        return applied;
+    }
+
+    /**
+     * pays interest on every account, account by account on the bulk pool while online ops keep going
+     * each account is credited with a CAS against the balance the interest was worked out on, so no update is lost
+     * the interest is logged as a deposit
+     *
+     * @param rateBps - interest in basis points of the balance, 0 to 10000, rounded down per account
+     * @return - interest paid over all accounts
+     */
+    public long applyInterest(int rateBps) {
+        if (rateBps < 0 || rateBps > 10000) {
+            throw new IllegalArgumentException("interest rate " + rateBps + " bps is outside 0-10000");
+        }
+        return bulkAdjust(balance -> balance > 0 ? (int) ((long) balance * rateBps / 10000) : 0);
+    }
+
+    /**
+     * charges fee to every account whose balance matches, account by account on the bulk pool
+     * the balance is tested and charged in one CAS, an account is charged only if it has more than fee,
+     * the same rule as withdraw, on AccountCells the fee is a tryWithdraw after the test instead
+     *
+     * @param predicate - which balances are charged
+     * @param fee       - fee per account
+     * @return - fees collected over all accounts
+     */
+    public long sweepFees(IntPredicate predicate, int fee) {
+        if (fee < 0) {
+            throw new IllegalArgumentException("fee " + fee + " is negative");
+        }
+        return -bulkAdjust(balance -> predicate.test(balance) ? -fee : 0);
+    }
+
+    /**
+     * reduces a value of every balance on the bulk pool, e.g. (0, b -> b, Long::sum) for the bank total
+     * balances are read at different moments, so money moving during the scan may be counted in neither
+     * or both accounts
+     *
+     * @param identity - result of no accounts
+     * @param mapper   - value of one balance
+     * @param reducer  - combines two values, must be associative
+     * @return - values of every balance reduced together
+     */
+    public long aggregate(long identity, IntToLongFunction mapper, LongBinaryOperator reducer) {
+        return Bulk.reduce(bulkPool, customers.size(), identity, id -> mapper.applyAsLong(bankDatabase.get(id)), reducer);
+    }
+
+    /**
+     * changes every account by what change gives for its balance, then waits once for the log to hold every change
+     *
+     * @return - sum of the changes made
+     */
+    private long bulkAdjust(IntUnaryOperator change) {
+        long total = Bulk.reduce(bulkPool, customers.size(), 0, id -> adjust(id, change), Long::sum);
+        TransactionLog log = transactionLog;
+        if (log != null) {
+            commit(log.position());//every record of the job is before here
+        }
+        return total;
+    }
+
+    /**
+     * changes one account atomically and logs the change, a change that takes money goes by the rules of take
+     *
+     * @return - the change made, 0 for none
+     */
+    private int adjust(long id, IntUnaryOperator change) {
+        int g = enterGate(id);
+        int delta;
+        for (; ; ) {
+            int balance = bankDatabase.get(id);
+            delta = balance == AccountStore.MISSING ? 0 : change.applyAsInt(balance);
+            if (delta < 0 && cells != null) {
+                delta = cells.tryWithdraw(id, -delta) ? delta : 0;
+                break;
+            }
+            if (delta == 0 || balance + delta <= 0) {
+                delta = 0;
+                break;
+            }
+            if (bankDatabase.compareAndSet(id, balance, balance + delta)) {
+                break;
+            }
+        }
+        if (delta != 0) {
+            log(delta > 0 ? TransactionLog.DEPOSIT : TransactionLog.WITHDRAW, id, -1, Math.abs(delta));
+        }
+        exitGate(g);
+        return delta;
+    }
+
+    /**
+     * counts a writer into the gate of the account, only needed while logging
+     * setTransactionLog has to happen before any writer runs
+     *
+     * @return - gate stripe to exit, -1 if not entered
+     */
+    private int enterGate(long id) {
+        if (transactionLog == null) {
+            return -1;
+        }
+        int g = gate.stripeOf(id);
+        gate.enter(g);
+        return g;
+    }
 
-        executor.execute(taskCreator);
-        executor.execute(taskListener);
-        while(doRun.get()){
-            //
+    private void exitGate(int g) {
+        if (g >= 0) {
+            gate.exit(g);
         }
-        executor.shutdown();
-        while(!executor.isShutdown()){
-            //wait until shutdown to leave
+    }
+
+    /**
+     * writes a record to the transaction log, if there is one
+     *
+     * @return - log position of the record, 0 without a log
+     */
+    private long log(int type, long id, long to, int amount) {
+        TransactionLog log = transactionLog;
+        return log == null ? 0 : log.append(type, id, to, amount);
+    }
+
+    /**
+     * waits until the log holds everything up to the position, only blocks with a GROUP_SYNC log
+     * never called while holding a lock, so other writers can join the same force
+     *
+     * @param position - from log
+     */
+    private void commit(long position) {
+        TransactionLog log = transactionLog;
+        if (log != null) {
+            log.awaitDurable(position);
         }
     }
 
 
     /**
-     * keeps iterating until it randomly finds a user that is not currently being used in a task
-     * @return - int for location of open user inside person array
+     * initialize n users, each with random on-person money
+     */
+    private void initializeUsers() {
+        customers.open(workload.newGenerator(Workload.WALLETS));
+
+        //every user starts out free
+        freeUsers = new FreeAccountPool(customers.size(), workload.newGenerator(Workload.SHUFFLE));
+    }
+
+    /**
+     * initialize database with account numbers and initial money
+     */
+    private void initializeDatabase() {
+        long position = 0;
+        Workload.Generator opening = workload.newGenerator(Workload.BALANCES);
+        for (int id = 0; id < customers.size(); id++) {
+            //make database accounts for each user, initialize with random money from $1.00-$19,999.99
+            int balance = opening.nextInt(1,2000000);
+            bankDatabase.put(id, balance);
+            position = log(TransactionLog.OPEN, id, -1, balance);
+        }
+        commit(position);
+    }
+
+    /**
+     * runs every operation of the workload and returns once all of them have been applied and handed back
+     * the caller creates the tasks, blocking while every user is busy, then waits for the last user to come back
+     * clients hand their users straight back to freeUsers, there is no listener thread and nothing spins
+     * with admission set, tasks over its limit block the creator, are shed or run on the creator
+     *
+     * @return - what the run did and how long it took
      */
-    private int getOpenUser(){
-        for(;;) {
-            boolean use = true;
-            int user = ThreadLocalRandom.current().nextInt(0, MAX_PEOPLE);
-            for (int i = 0; i < runningTasks.length; i++) {
-                if(people[user].getAccountNumber() == runningTasks[i]){
-                    use = false;
-                    break;
-                    //if already running dont use
+    private RunStats execute() {
+        ExecutorService taskExecutor = executorMode.newExecutor(Runtime.getRuntime().availableProcessors());
+        BankMetrics m = metrics;
+        if (m != null) {
+            m.setExecutor(taskExecutor);
+        }
+        int operations = workload.getOperations();
+        Semaphore free = new Semaphore(customers.size());//one permit per user in freeUsers
+        freePermits = free;
+        pending = new CountDownLatch(operations);//one count per user handed out
+        LongAdder blocked = new LongAdder();
+        Admission a = admission;
+        int shed = 0;
+        long start = System.nanoTime();
+
+        try {
+            Workload.Generator tasks = workload.newGenerator(0);
+            int clients = 0;
+            for (int i = 0; i < operations; clients++) {//every task, at most one running per user
+                if (batchSize > 1) {//one client sends the ops of several users
+                    Batch batch = new Batch(Math.min(batchSize, operations - i));//its own batch, the client applies it on another thread
+                    while (!batch.isFull()) {
+                        int user = getOpenUser(free, blocked);
+                        batch.add(user, drawBatchDelta(tasks, user));
+                    }
+                    if (!submit(a, taskExecutor, (int) batch.account(0), new BatchClient(this, batch))) {
+                        for (int k = 0; k < batch.size(); k++) {
+                            handBack((int) batch.account(k));
+                        }
+                        shed += batch.size();
+                    }
+                    i += batch.size();
+                    continue;
+                }
+                int user = getOpenUser(free, blocked);
+                int task = decideTask(tasks);
+                long to = task == Workload.TRANSFER ? tasks.nextAccount() : -1;
+                Client temp = new Client(this, user, task, to, drawAmount(tasks, user, task));
+                if (!submit(a, taskExecutor, user, temp)) {
+                    handBack(user);
+                    shed++;
                 }
+                i++;
             }
-            if(use){
-                return user;
+            pending.await();
+            return new RunStats(operations, clients, System.nanoTime() - start, blocked.sum(), shed);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        } finally {
+            taskExecutor.shutdown();
+            try {
+                taskExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         }
     }
 
+    /**
+     * a PARTITIONED executor runs the client on the worker owning the user's account
+     *
+     * @param user - account number of the client's (first) user
+     * @return - false if admission shed the client, it never runs and its users are still the caller's
+     */
+    private static boolean submit(Admission a, ExecutorService executor, int user, Runnable client) {
+        Executor target = executor;
+        if (executor instanceof PartitionedExecutor) {
+            PartitionedExecutor partitioned = (PartitionedExecutor) executor;
+            target = task -> partitioned.execute(user, task);
+        }
+        if (a == null) {
+            target.execute(client);
+            return true;
+        }
+        return a.execute(target, client);
+    }
+
+    /**
+     * takes a user that is not currently being used in a task, blocking until one is handed back if all are in use
+     *
+     * @param free    - one permit per user in freeUsers
+     * @param blocked - time spent blocked is added here
+     * @return - account number of the open user
+     */
+    private int getOpenUser(Semaphore free, LongAdder blocked) {
+        if (!free.tryAcquire()) {
+            long start = System.nanoTime();
+            free.acquireUninterruptibly();
+            blocked.add(System.nanoTime() - start);
+        }
+        return freeUsers.claimReleased();//a permit means a client has put a user back, or is just about to
+    }
+
+    /**
+     * gives a user back once its task is done, so new tasks can be made of it
+     *
+     * @param user - account number of the user
+     */
+    void handBack(int user) {
+        freeUsers.release(user);
+        freePermits.release();
+        pending.countDown();
+    }
+
+    Customers getCustomers() {
+        return customers;
+    }
+
     /**
      * decide a task for a thread to simulate
      * 1: withdraw for purchase(read+write)
      * 2: deposit some amount of money to be decided in thread
      * 3: receive pay(no 'database' access, pay is in local user not bank)
+     * 4: transfer money from the user's account to another account(read+write of two accounts)
+     * 5: read the balance of the user's account(read only)
+     *
+     * the odds of each come from the task mix of the workload
      *
-     * @return a number from 1-3 of which task to do, that will be given to a thread
+     * @param tasks - generator of the task creator
+     * @return a number from 1-5 of which task to do, that will be given to a thread
+     */
+    private int decideTask(Workload.Generator tasks) {
+        return tasks.nextTask();
+    }
+
+    /**
+     * draws the amount of a task from the creator's stream, so the amounts repeat with the seed
+     * the user is not running yet, so its wallet cannot change under the draw
+     *
+     * @param tasks - generator of the task creator
+     * @param user  - user the task is for
+     * @param task  - task number
+     * @return - amount of the task, 0 for a deposit the user cannot make or a task without one
+     */
+    private int drawAmount(Workload.Generator tasks, int user, int task) {
+        switch (task) {
+            case Workload.WITHDRAW://$1.00-$9,999.99
+            case Workload.TRANSFER:
+                return tasks.nextInt(1, 1000000);
+            case Workload.DEPOSIT: {//$1 to current money amount-1
+                long money = customers.getWallet(user);
+                return money > 1 ? tasks.nextInt(1, (int) Math.min(money, Integer.MAX_VALUE)) : 0;
+            }
+            case Workload.PAY:
+                return tasks.nextInt(50000, 2000000);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @param tasks - generator of the task creator
+     * @param user  - user the op is for
+     * @return - delta of a batch op, a withdrawal or a deposit at even odds
      */
-    private int decideTask() {
-        return ThreadLocalRandom.current().nextInt(1, 4);
+    private int drawBatchDelta(Workload.Generator tasks, int user) {
+        return tasks.nextBoolean() ? -drawAmount(tasks, user, Workload.WITHDRAW) : drawAmount(tasks, user, Workload.DEPOSIT);
     }
 
 }
 
 
-//simulates a client connnection
-class Client extends Thread {
+//simulates a client connection
+class Client implements Runnable {
 
     private final BankManager bm;
-    private final Person p;
+    private final int user;//account number of the user
     private final int task;
-    private BlockingQueue<Person> doneListener;
+    private final long to;//account a transfer goes to
+    private final int amount;//drawn by the task creator, see drawAmount
 
-    public Client(BankManager bm, Person p, int task, BlockingQueue<Person> b) {
+    public Client(BankManager bm, int user, int task, long to, int amount) {
         this.bm = bm;
-        this.p = p;
+        this.user = user;
         this.task = task;
-        doneListener = b;
+        this.to = to;
+        this.amount = amount;
     }
 
     @Override
     public void run() {
-        //do stuff
-        if(task == 1){
-            //make random withdrawal $1.00-$9,999.99
-            int withdrawal = ThreadLocalRandom.current().nextInt(1, 1000000);
-            boolean success = bm.withdraw(p.getAccountNumber(), withdrawal);
-            if(success){
-                //if successful withdrawal add to current money
-                p.setMoney(p.getMoney().get()+withdrawal);
-            }
+        bm.simulateIo();
+        Customers customers = bm.getCustomers();
+        try {
+            //do stuff
+            if (task == 1) {
+                //make random withdrawal $1.00-$9,999.99
+                int withdrawal = amount;
+                boolean success = bm.withdraw(user, withdrawal);
+                if (success) {
+                    //if successful withdrawal add to current money
+                    customers.addToWallet(user, withdrawal);
+                }
 
-        } else if(task == 2){
-            //make random deposit of $1 to current money amount-1
-            if(p.getMoney().get() > 1) {//more than $0.01 to deposit
-                int deposit = ThreadLocalRandom.current().nextInt(1, p.getMoney().get());
-                bm.deposit(p.getAccountNumber(), deposit);
-                //modify on-person money
-                p.setMoney(p.getMoney().get() - deposit);
+            } else if (task == 2) {
+                //make random deposit of $1 to current money amount-1
+                if (amount > 0) {//the user had more than $0.01 to deposit
+                    int deposit = amount;
+                    bm.deposit(user, deposit);
+                    //modify on-person money
+                    customers.addToWallet(user, -deposit);
+                }
+            } else if (task == 3) {//increase money by an amount
+                int pay = amount;
+                customers.addToWallet(user, pay);
+            } else if (task == 4) {
+                //transfer $0.01-$9,999.99 to the chosen account, on-person money is not touched
+                bm.transfer(user, to, amount);
+            } else if (task == 5) {//check the balance, never blocks a writer
+                bm.getBalance(user);
             }
-        } else if(task == 3){//increase money by an amount
-            p.setMoney(p.getMoney().get()+ThreadLocalRandom.current().nextInt(50000, 2000000));
-        }
-        try {
-            doneListener.offer(p, 1, TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-            System.out.println("client stack");
+        } finally {//handed back even if the op failed, the run waits for every user
+            bm.handBack(user);
         }
     }
 
-    public Person getPerson(){
-        return p;
+    public int getUser() {
+        return user;
     }
 
 }
 
-class Person {
-    private String accountNumber;
-    private AtomicInteger money;
-
-    public Person(String id) {
-        this.accountNumber = id;
-
-        //initial money in USD, last two digits are change
-        this.money = new AtomicInteger(ThreadLocalRandom.current().nextInt(0, 100000));
-    }
+//simulates a client connection that sends the deposits and withdrawals of several users in one batch
+class BatchClient implements Runnable {
 
-    public void printMoney() {
-        System.out.println("User #" + accountNumber + " has $"+ (double)money.get() / 100);
-    }
-
-    public void setMoney(int newMoney) {
-        money.set(newMoney);
-    }
+    private final BankManager bm;
+    private final Batch batch;//one op per user, drawn by the task creator
 
-    public AtomicInteger getMoney() {
-        return money;
+    public BatchClient(BankManager bm, Batch batch) {
+        this.bm = bm;
+        this.batch = batch;
     }
 
-    public String getAccountNumber() {
-        return accountNumber;
+    @Override
+    public void run() {
+        bm.simulateIo();
+        Customers customers = bm.getCustomers();
+        try {
+            bm.applyBatch(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                if (batch.result(i) != Batch.REFUSED) {//money moved between the bank and on-person money
+                    customers.addToWallet(batch.account(i), -batch.delta(i));
+                }
+            }
+        } finally {//handed back even if the op failed, the run waits for every user
+            for (int i = 0; i < batch.size(); i++) {
+                bm.handBack((int) batch.account(i));
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,55 @@
+package jdk_version;
+
+import common.AccountKeys;
+import common.AccountStore;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * account store on top of a jdk ConcurrentHashMap of id string to AtomicInteger balance
+ * keeps the id string of every dense account number in AccountKeys
+ *
+ * @author SeanMcGrath
+ */
+class ConcurrentHashMapAccountStore implements AccountStore {
+
+    private final ConcurrentHashMap<String, AtomicInteger> map = new ConcurrentHashMap<>();
+    private final AccountKeys keys;
+
+    /**
+     * @param accounts - account numbers below this get their id string cached
+     */
+    ConcurrentHashMapAccountStore(int accounts) {
+        keys = new AccountKeys(accounts);
+    }
+
+    @Override
+    public int get(long account) {
+        AtomicInteger balance = map.get(keys.of(account));
+        return balance == null ? MISSING : balance.get();
+    }
+
+    @Override
+    public void put(long account, int balance) {
+        String k = keys.of(account);
+        AtomicInteger current = map.get(k);
+        if (current != null) {//existing account, set in place
+            current.set(balance);
+        } else if ((current = map.putIfAbsent(k, new AtomicInteger(balance))) != null) {
+            current.set(balance);
+        }
+    }
+
+    @Override
+    public int addAndGet(long account, int delta) {
+        AtomicInteger balance = map.get(keys.of(account));
+        return balance == null ? MISSING : balance.addAndGet(delta);
+    }
+
+    @Override
+    public boolean compareAndSet(long account, int expect, int update) {
+        AtomicInteger balance = map.get(keys.of(account));
+        return balance != null && balance.compareAndSet(expect, update);
+    }
+}
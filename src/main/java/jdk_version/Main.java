@@ -7,5 +7,6 @@ public class Main {
     public static void main(String[] args) {
         BankManager bm = new BankManager();
         bm.run();
+        System.out.println(bm.getLastRun());
     }
 }
\ No newline at end of file
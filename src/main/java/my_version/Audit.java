@@ -0,0 +1,63 @@
+package my_version;
+
+/**
+ * result of BankManager.audit: every balance at one point in time, with the bank total
+ * wallet money is summed too so conservation can be checked,
+ * on-person money is only exact while no client task is running (before or after run)
+ *
+ * @author SeanMcGrath
+ */
+public class Audit {
+
+    private final int[] balances;
+    private final long bankTotal;
+    private final long walletTotal;
+    private final long expectedTotal;
+
+    Audit(int[] balances, long bankTotal, long walletTotal, long expectedTotal) {
+        this.balances = balances;
+        this.bankTotal = bankTotal;
+        this.walletTotal = walletTotal;
+        this.expectedTotal = expectedTotal;
+    }
+
+    /**
+     * @param id - account number
+     * @return - balance of the account at the audit point
+     */
+    public int getBalance(long id) {
+        return balances[(int) id];
+    }
+
+    public int getAccounts() {
+        return balances.length;
+    }
+
+    /**
+     * @return - sum of every balance at the audit point
+     */
+    public long getBankTotal() {
+        return bankTotal;
+    }
+
+    /**
+     * @return - sum of every user's on-person money when the audit finished
+     */
+    public long getWalletTotal() {
+        return walletTotal;
+    }
+
+    /**
+     * @return - money at opening plus all pay received since, what bank and wallets together should hold
+     */
+    public long getExpectedTotal() {
+        return expectedTotal;
+    }
+
+    /**
+     * @return - true if no money was made or lost between the bank and the wallets
+     */
+    public boolean isConserved() {
+        return bankTotal + walletTotal == expectedTotal;
+    }
+}
@@ -0,0 +1,90 @@
+package my_version;
+
+import common.Workload;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * what continuous audits cost the writers
+ * plain: three writers on their own, audited: the same three writers next to a thread that audits back to back
+ * compare the writer scores of the two groups, the auditor score is audits per microsecond
+ * run with: java -cp ... org.openjdk.jmh.Main AuditBenchMark
+ *
+ * @author SeanMcGrath
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuditBenchMark {
+
+    @Param({"10000", "1000000"})
+    public int accounts;
+
+    private BankManager bm;
+    private Workload workload;
+
+    @State(Scope.Thread)
+    public static class Ops {
+        Workload.Generator generator;
+
+        @Setup(Level.Trial)
+        public void setup(AuditBenchMark bench) {
+            generator = bench.workload.newGenerator(Thread.currentThread().getId());
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        workload = new Workload();
+        workload.setAccounts(accounts);
+        bm = new BankManager(BankManager.DEFAULT_STRIPES, workload);
+        bm.initialize();
+    }
+
+    private boolean write(Ops ops) {
+        Workload.Generator g = ops.generator;
+        if (g.nextInt(2) == 0) {
+            bm.deposit(g.nextAccount(), 1);
+            return true;
+        }
+        return bm.transfer(g.nextAccount(), g.nextAccount(), 1);
+    }
+
+    @Benchmark
+    @Group("plain")
+    @GroupThreads(3)
+    public boolean plainWriter(Ops ops) {
+        return write(ops);
+    }
+
+    @Benchmark
+    @Group("audited")
+    @GroupThreads(3)
+    public boolean auditedWriter(Ops ops) {
+        return write(ops);
+    }
+
+    @Benchmark
+    @Group("audited")
+    @GroupThreads(1)
+    public long auditor() {
+        return bm.audit().getBankTotal();
+    }
+}
@@ -0,0 +1,77 @@
+package my_version;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * how a thread waits between tries at a seq lock stripe it could not get
+ * first it spins, round k spins a random 1 to 2^k times so threads that failed together do not retry together,
+ * then it yields the core a few times, then it parks for a random time that doubles each try up to a cap
+ * spinning is cheapest while the holder is running on another core, parking is what lets the holder run
+ * when there are more threads than cores
+ *
+ * @author SeanMcGrath
+ */
+public final class Backoff {
+
+    private static final int MAX_SHIFT = 10;//longest spin round is 1024 onSpinWaits
+    private static final int MAX_PARK_SHIFT = 20;//parks stop doubling after a million times the first
+
+    //never gives up the core, the old behaviour plus onSpinWait
+    public static final Backoff SPIN = new Backoff(Integer.MAX_VALUE, 0, 0, 0);
+    //spin, yield, then park from 1us up to 100us
+    public static final Backoff DEFAULT = new Backoff(8, 4, 1_000, 100_000);
+
+    private final int spinRounds;
+    private final int yields;
+    private final long minParkNanos;
+    private final long maxParkNanos;
+
+    /**
+     * @param spinRounds   - rounds of spinning before yielding
+     * @param yields       - yields after spinning before parking
+     * @param minParkNanos - first park, doubled each try after that
+     * @param maxParkNanos - longest park, at most a second
+     */
+    public Backoff(int spinRounds, int yields, long minParkNanos, long maxParkNanos) {
+        if (spinRounds < 0 || yields < 0 || minParkNanos < 0 || maxParkNanos < minParkNanos
+                || maxParkNanos > TimeUnit.SECONDS.toNanos(1)) {
+            throw new IllegalArgumentException("bad backoff " + spinRounds + " " + yields + " " + minParkNanos + " " + maxParkNanos);
+        }
+        this.spinRounds = spinRounds;
+        this.yields = yields;
+        this.minParkNanos = minParkNanos;
+        this.maxParkNanos = maxParkNanos;
+    }
+
+    /**
+     * waits once, the caller tries the stripe again after
+     *
+     * @param attempt - failed tries in a row before this one, 0 on the first
+     * @param stats   - where the wait is counted
+     */
+    void pause(int attempt, SpinStats stats) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (attempt < spinRounds) {
+            int spins = 1 + random.nextInt(1 << Math.min(attempt, MAX_SHIFT));
+            for (int i = 0; i < spins; i++) {
+                Thread.onSpinWait();
+            }
+            stats.spun(spins);
+        } else if (attempt - spinRounds < yields) {
+            Thread.yield();
+            stats.yielded();
+        } else {
+            int shift = Math.min(attempt - spinRounds - yields, MAX_PARK_SHIFT);
+            long cap = Math.min(maxParkNanos, minParkNanos << shift);
+            LockSupport.parkNanos(cap / 2 + random.nextLong(cap / 2 + 1));//half fixed, half jitter
+            stats.parked();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Backoff{spinRounds=" + spinRounds + ", yields=" + yields + ", park=" + minParkNanos + "-" + maxParkNanos + "ns}";
+    }
+}
@@ -1,26 +1,131 @@
 package my_version;
 
+import common.AccountStore;
+import common.Admission;
+import common.BankMetrics;
+import common.Customers;
+import common.Batch;
+import common.Bulk;
+import common.ExecutorMode;
+import common.FreeAccountPool;
+import common.Ledger;
+import common.PartitionedExecutor;
+import common.Recovery;
+import common.RunStats;
+import common.Snapshot;
+import common.TransactionLog;
+import common.Workload;
+import common.WriteGate;
+
+import java.nio.file.Path;
+
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntPredicate;
+import java.util.function.IntToLongFunction;
+import java.util.function.IntUnaryOperator;
+import java.util.function.LongBinaryOperator;
 
 /**
  * @author SeanMcGrath
  */
-public class BankManager implements Runnable {
+public class BankManager implements Runnable, Ledger {
+
+    static final int DEFAULT_STRIPES = 64;
+    //ints between two stripe sequences, keeps every stripe on its own cache line
+    private static final int PAD = 16;
+
+    //keeps the attempt count of a long wait from overflowing
+    private static final int MAX_ATTEMPT = 1 << 20;
+
+    //striped seq locks, one sequence per stripe, even = unlocked, odd = locked
+    //null when running lock-free, balances are then only updated by CAS inside the hashmap
+    private final AtomicIntegerArray locks;
+    private final int stripeMask;
+    private volatile Backoff backoff = Backoff.DEFAULT;//how writers and readers wait for a held stripe
+    private final SpinStats spinStats = new SpinStats();
+    //lets snapshots hold a stripe still while running lock-free with a log, null when there are locks
+    private final WriteGate gate;
+    //account number to balance, my own hashmap unless another store is given
+    private final AccountStore bankDatabase;
+
+    private final Workload workload;//number of users, number of tasks and what they do
+    private final Customers customers;//on-person money of every user, indexed by account number
+    private FreeAccountPool freeUsers;//users that are not in a running task
 
-    private final int MAX_PEOPLE = 500;
+    private int batchSize = 1;//users per task, more than 1 sends them through applyBatch
+    private ExecutorMode executorMode = ExecutorMode.CACHED;//what client tasks run on
+    private volatile Admission admission;//bounds client tasks in flight, null for only the number of users
+    private long ioLatencyMicros = 0;//simulated database round trip of every client
+    private volatile TransactionLog transactionLog;//write-ahead log of every change, null for none
+    private volatile BankMetrics metrics;//op counts and latencies, null for none
+    private volatile RunStats lastRun;
+    private ForkJoinPool bulkPool = ForkJoinPool.commonPool();//runs bulk jobs over every account
+    //of the running run, a client hands its users back through them, see handBack
+    private volatile Semaphore freePermits = new Semaphore(0);
+    private volatile CountDownLatch pending = new CountDownLatch(0);
 
-    //seq lock
-    private AtomicInteger lock = new AtomicInteger();
-    //hashmap to hold bank info
-    private volatile HashMap bankDatabase = new HashMap();
+    //copy-on-write audit, see audit()
+    private volatile int auditEpoch;//epoch of the running audit, 0 when none is running
+    private int lastAuditEpoch;
+    private int[] auditTags;//per account, epoch whose balance is kept in auditSaved
+    private int[] auditSaved;
+    private int[][] stripeMembers;
+    private long openingTotal;//bank and wallet money when the accounts were opened
+    private final LongAdder paid = new LongAdder();//money in from outside since opening: pay, interest less fees
 
-    private Person[] people = new Person[MAX_PEOPLE];
-    String[] runningTasks = new String[MAX_PEOPLE];//list of user id's that are running at any given time
+    public BankManager() {
+        this(DEFAULT_STRIPES);
+    }
 
-    private BlockingQueue<Person> finishedTasks = new ArrayBlockingQueue<>(MAX_PEOPLE);
+    /**
+     * @param stripes - number of seq lock stripes, rounded up to a power of two
+     *                1 stripe behaves like the old single global lock, 0 runs without any lock
+     */
+    public BankManager(int stripes) {
+        this(stripes, new Workload());
+    }
 
+    /**
+     * @param stripes  - number of seq lock stripes, 0 runs without any lock
+     * @param workload - users and tasks of a run
+     */
+    public BankManager(int stripes, Workload workload) {
+        this(stripes, new HashMapAccountStore(workload.getAccounts()), workload);
+    }
+
+    /**
+     * @param stripes - number of seq lock stripes, 0 runs without any lock
+     * @param store   - where account balances are kept
+     */
+    public BankManager(int stripes, AccountStore store) {
+        this(stripes, store, new Workload());
+    }
+
+    /**
+     * @param stripes  - number of seq lock stripes, 0 runs without any lock
+     * @param store    - where account balances are kept
+     * @param workload - users and tasks of a run
+     */
+    public BankManager(int stripes, AccountStore store, Workload workload) {
+        bankDatabase = store;
+        this.workload = workload;
+        customers = new Customers(workload.getAccounts());
+        if (stripes <= 0) {
+            stripeMask = 0;
+            locks = null;
+            gate = new WriteGate(DEFAULT_STRIPES);
+            return;
+        }
+        gate = null;
+        int n = 1;
+        while (n < stripes) {
+            n <<= 1;
+        }
+        stripeMask = n - 1;
+        locks = new AtomicIntegerArray(n * PAD);
+    }
 
     /**
      * initialize
@@ -28,257 +133,1082 @@ public class BankManager implements Runnable {
      * tasks will simulate stripped-down bank system + users
      */
     public void run() {
+        initialize();
+        lastRun = execute();
+    }
+
+    /**
+     * @return - stats of the last completed run, null before the first
+     */
+    public RunStats getLastRun() {
+        return lastRun;
+    }
+
+    /**
+     * sets how many users the task creator groups into one batch client, 1 runs a client per user
+     *
+     * @param batchSize - users per batch
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * @param mode - what the task creator runs client tasks on
+     */
+    public void setExecutorMode(ExecutorMode mode) {
+        this.executorMode = mode;
+    }
+
+    /**
+     * puts client tasks through admission control, so a run keeps at most its limit of tasks in flight
+     * instead of one per user, and a CACHED executor at most that many threads
+     *
+     * @param admission - limit and policy for client tasks, null for none
+     */
+    public void setAdmission(Admission admission) {
+        this.admission = admission;
+    }
+
+    public Admission getAdmission() {
+        return admission;
+    }
+
+    /**
+     * sets a blocking wait every client does before using the bank, standing in for a database round trip
+     *
+     * @param micros - wait in microseconds, 0 for none
+     */
+    public void setIoLatency(long micros) {
+        this.ioLatencyMicros = micros;
+    }
+
+    /**
+     * blocks the calling client for the configured io latency
+     * sleeping parks a virtual thread without holding on to its carrier, like real socket io would
+     */
+    void simulateIo() {
+        if (ioLatencyMicros <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.MICROSECONDS.sleep(ioLatencyMicros);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @param backoff - how threads wait for a stripe someone else holds, Backoff.SPIN never gives up the core
+     */
+    public void setBackoff(Backoff backoff) {
+        this.backoff = backoff;
+    }
+
+    public Backoff getBackoff() {
+        return backoff;
+    }
+
+    /**
+     * @param pool - what applyInterest, sweepFees and aggregate run on, the common pool unless set
+     */
+    public void setBulkPool(ForkJoinPool pool) {
+        this.bulkPool = pool;
+    }
+
+    /**
+     * @return - live contention counters of the seq lock stripes, all zero when running lock-free
+     */
+    public SpinStats getSpinStats() {
+        return spinStats;
+    }
+
+    /**
+     * counts and times every ledger op from now on, and reports how many users are busy and how full the executor is
+     *
+     * @param metrics - where to record, null for none
+     */
+    public void setMetrics(BankMetrics metrics) {
+        if (metrics != null) {
+            metrics.setBusyUsers(() -> customers.size() - freePermits.availablePermits());
+        }
+        this.metrics = metrics;
+    }
+
+    public BankMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * makes every deposit, withdrawal and transfer from now on go through a write-ahead log
+     *
+     * @param log - log to write to, null for none
+     */
+    public void setTransactionLog(TransactionLog log) {
+        this.transactionLog = log;
+    }
+
+    /**
+     * @return - the log in use, the one opened by recover after a recovery, close it on shutdown
+     */
+    public TransactionLog getTransactionLog() {
+        return transactionLog;
+    }
+
+    /**
+     * @return - number of accounts, account numbers run from 0 to this-1
+     */
+    @Override
+    public int getAccounts() {
+        return customers.size();
+    }
+
+    /**
+     * create users and their bank accounts without running any tasks
+     */
+    public void initialize() {
         initializeUsers();
         initializeDatabase();
-        execute();
+        openingTotal = bankTotal() + walletTotal();
+    }
+
+    /**
+     * create users and restore their accounts from the latest snapshot and the log after it,
+     * then keep logging to the same log
+     *
+     * @param snapshotDir - where snapshots were written
+     * @param logDir      - where the transaction log was written
+     * @param durability  - durability of the log from now on
+     * @return - what was recovered
+     */
+    public Recovery recover(Path snapshotDir, Path logDir, TransactionLog.Durability durability) {
+        initializeUsers();
+        Recovery recovery = Recovery.run(snapshotDir, logDir, customers.size(), bankDatabase,
+                Runtime.getRuntime().availableProcessors());
+        setTransactionLog(new TransactionLog(logDir, durability, recovery.getSegmentBytes(),
+                TimeUnit.MILLISECONDS.toNanos(10), recovery.getLogEnd()));
+        openingTotal = bankTotal() + walletTotal();
+        return recovery;
+    }
+
+    /**
+     * copies every balance one stripe at a time, only the stripe being copied waits
+     * the log is forced up to the snapshot and the segments it no longer needs are deleted
+     *
+     * @param dir - snapshot directory
+     * @return - the snapshot file
+     */
+    @Override
+    public synchronized Path snapshot(Path dir) {
+        TransactionLog log = transactionLog;
+        int stripes = locks == null ? gate.getStripes() : stripeMask + 1;
+        int[][] members = Snapshot.membersByStripe(customers.size(), stripes);
+        int[] balances = new int[customers.size()];
+        long[] positions = new long[stripes];
+        for (int s = 0; s < stripes; s++) {
+            if (locks == null) {
+                gate.freeze(s);
+            } else {
+                lockStripe(s * PAD);
+            }
+            for (int id : members[s]) {
+                balances[id] = bankDatabase.get(id);
+            }
+            positions[s] = log == null ? 0 : log.position();//every record of this stripe before here is in balances
+            if (locks == null) {
+                gate.thaw(s);
+            } else {
+                unlockStripe(s * PAD);
+            }
+        }
+        if (log != null) {
+            log.sync(positions[stripes - 1]);//the log must never end before the snapshot after a crash
+        }
+        Path file = Snapshot.write(dir, balances, positions);
+        if (log != null) {
+            log.release(positions[0]);//older snapshots are gone, nothing reads the log before this
+        }
+        return file;
     }
 
     /**
      * adds deposit amount to current stored money
-     * loops until a lock is successfully achieved
+     * loops until the stripe lock for the account is successfully achieved
      *
-     * @param id     - user id
+     * @param id     - user account number
      * @param amount - amount to deposit
      */
-    public void deposit(String id, int amount) {//read/write
-        for (; ; ) {
-            int start = lock.get();
-            if (start % 2 == 0) {//if not locked
-                if (lock.compareAndSet(start, start + 1)) {//lock it, false if someone else has taken lock so loop again
-                    bankDatabase.put(id, bankDatabase.get(id) + amount);//deposit
-                    lock.incrementAndGet(); //unlock the lock
-                    return;
-                }
+    @Override
+    public void deposit(long id, int amount) {//read/write
+        BankMetrics m = metrics;
+        if (m == null) {
+            doDeposit(id, amount);
+            return;
+        }
+        BankMetrics.Recorder r = m.recorder();
+        long t = r.start();
+        doDeposit(id, amount);
+        r.record(BankMetrics.DEPOSIT, t, true);
+    }
+
+    private void doDeposit(long id, int amount) {
+        if (locks == null) {
+            int g = enterGate(id);
+            long position = -1;
+            if (bankDatabase.addAndGet(id, amount) != AccountStore.MISSING) {//nothing to log for a missing account
+                position = log(TransactionLog.DEPOSIT, id, -1, amount);
+            }
+            exitGate(g);
+            if (position != -1) {
+                commit(position);
             }
+            return;
+        }
+        int s = stripeFor(id);
+        lockStripe(s);
+        int balance = bankDatabase.get(id);
+        if (balance == AccountStore.MISSING) {//no such account, same as the lock-free addAndGet
+            unlockStripe(s);
+            return;
         }
+        preserve(id, auditEpoch);
+        bankDatabase.put(id, balance + amount);//deposit
+        long position = log(TransactionLog.DEPOSIT, id, -1, amount);
+        unlockStripe(s);
+        commit(position);
     }
 
     /**
      * withdraws amount from bank
      * if amount is not enough returns false without withdrawing
+     * the balance is first checked with an optimistic read, so failed withdrawals never take the lock
      *
-     * @param id     - user id
+     * @param id     - user account number
      * @param amount - amount to withdraw
      * @return - true if withdrawn successfully, false otherwise
      */
-    public boolean withdraw(String id, int amount) {//read only or read/write
+    @Override
+    public boolean withdraw(long id, int amount) {//read only or read/write
+        BankMetrics m = metrics;
+        if (m == null) {
+            return doWithdraw(id, amount);
+        }
+        BankMetrics.Recorder r = m.recorder();
+        long t = r.start();
+        boolean result = doWithdraw(id, amount);
+        r.record(BankMetrics.WITHDRAW, t, result);
+        return result;
+    }
+
+    private boolean doWithdraw(long id, int amount) {
+        if (locks == null) {
+            int g = enterGate(id);
+            long position = -1;
+            if (addLockFree(id, -amount) != Batch.REFUSED) {
+                position = log(TransactionLog.WITHDRAW, id, -1, amount);
+            }
+            exitGate(g);
+            if (position == -1) {
+                return false;
+            }
+            commit(position);
+            return true;
+        }
+        int s = stripeFor(id);
+        if (readBalance(id, s) <= amount) {//not enough money, no need to lock
+            return false;
+        }
+        lockStripe(s);
+        if (bankDatabase.get(id) > amount) {//still enough money to withdraw
+            //then withdraw, unlock, and return true for success
+            preserve(id, auditEpoch);
+            bankDatabase.put(id, bankDatabase.get(id) - amount);
+            long position = log(TransactionLog.WITHDRAW, id, -1, amount);
+            unlockStripe(s);
+            commit(position);
+            return true;
+        }
+        //else unlock and return false for failure to withdraw
+        unlockStripe(s);
+        return false;
+    }
+
+    /**
+     * moves amount from one account to another, all or nothing
+     * both stripes are locked in index order so two opposite transfers can never deadlock
+     * without stripes the withdrawal and deposit are separate CAS steps, money can be seen in flight between them
+     *
+     * @param from   - account number to take money from
+     * @param to     - account number to give money to
+     * @param amount - amount to move
+     * @return - true if moved, false if from does not have more than amount or to does not exist
+     */
+    @Override
+    public boolean transfer(long from, long to, int amount) {
+        BankMetrics m = metrics;
+        if (m == null) {
+            return doTransfer(from, to, amount);
+        }
+        BankMetrics.Recorder r = m.recorder();
+        long t = r.start();
+        boolean result = doTransfer(from, to, amount);
+        r.record(BankMetrics.TRANSFER, t, result);
+        return result;
+    }
+
+    private boolean doTransfer(long from, long to, int amount) {
+        if (locks == null) {
+            int gf = enterGate(from);
+            int gt = gf >= 0 && gate.stripeOf(to) != gf ? enterGate(to) : -1;
+            long position = -1;
+            //accounts are never closed, so a to that exists now still takes the deposit
+            if (bankDatabase.get(to) != AccountStore.MISSING && addLockFree(from, -amount) != Batch.REFUSED) {
+                bankDatabase.addAndGet(to, amount);
+                position = log(TransactionLog.TRANSFER, from, to, amount);
+            }
+            exitGate(gt);
+            exitGate(gf);
+            if (position == -1) {
+                return false;
+            }
+            commit(position);
+            return true;
+        }
+        int sf = stripeFor(from);
+        int st = stripeFor(to);
+        if (readBalance(from, sf) <= amount) {//not enough money, no need to lock
+            return false;
+        }
+        int first = Math.min(sf, st);
+        int second = Math.max(sf, st);
+        lockStripe(first);
+        if (second != first) {
+            lockStripe(second);
+        }
+        long position = -1;
+        int balance = bankDatabase.get(from);
+        if (balance > amount && bankDatabase.get(to) != AccountStore.MISSING) {
+            int epoch = auditEpoch;//read once, both sides belong to the same side of an audit
+            preserve(from, epoch);
+            preserve(to, epoch);
+            bankDatabase.put(from, balance - amount);
+            bankDatabase.put(to, bankDatabase.get(to) + amount);
+            position = log(TransactionLog.TRANSFER, from, to, amount);
+        }
+        if (second != first) {
+            unlockStripe(second);
+        }
+        unlockStripe(first);
+        if (position == -1) {
+            return false;
+        }
+        commit(position);
+        return true;
+    }
+
+    /**
+     * applies every deposit and withdrawal in the batch
+     * ops are grouped by stripe so every stripe the batch touches is locked only once
+     * ops on the same account still happen in batch order
+     *
+     * @param batch - ops to apply, the result of every op is written back into it
+     * @return - number of ops that were not refused
+     */
+    @Override
+    public int applyBatch(Batch batch) {
+        BankMetrics m = metrics;
+        if (m == null) {
+            return doApplyBatch(batch);
+        }
+        BankMetrics.Recorder r = m.recorder();
+        long t = r.start();
+        int result = doApplyBatch(batch);
+        r.record(BankMetrics.BATCH, t, true);
+        return result;
+    }
+
+    private int doApplyBatch(Batch batch) {
+        int n = batch.size();
+        int applied = 0;
+        long position = 0;
+        if (locks == null) {
+            for (int i = 0; i < n; i++) {
+                int g = enterGate(batch.account(i));
+                int result = addLockFree(batch.account(i), batch.delta(i));
+                if (result != Batch.REFUSED) {
+                    position = logDelta(batch.account(i), batch.delta(i));
+                    applied++;
+                }
+                exitGate(g);
+                batch.setResult(i, result);
+            }
+            commit(position);//one wait for the whole batch
+            return applied;
+        }
+        for (int i = 0; i < n; i++) {
+            batch.setGroup(i, stripeFor(batch.account(i)));
+        }
+        batch.sortByGroup();
+        int k = 0;
+        while (k < n) {
+            int s = batch.groupAt(k);
+            lockStripe(s);
+            int epoch = auditEpoch;
+            do {
+                int i = batch.opAt(k);
+                long id = batch.account(i);
+                int delta = batch.delta(i);
+                int balance = bankDatabase.get(id);
+                int result = Batch.REFUSED;
+                if (balance != AccountStore.MISSING && (delta >= 0 || balance > -delta)) {//same rule as withdraw
+                    result = balance + delta;
+                    preserve(id, epoch);
+                    bankDatabase.put(id, result);
+                    position = Math.max(position, logDelta(id, delta));
+                    applied++;
+                }
+                batch.setResult(i, result);
+                k++;
+            } while (k < n && batch.groupAt(k) == s);
+            unlockStripe(s);
+        }
+        commit(position);//one wait for the whole batch
+        return applied;
+    }
+
+    /**
+     * pays interest on every account, account by account on the bulk pool while online ops keep going
+     * each account is read and credited under its stripe, the same as a deposit, so no update is lost
+     * the interest is logged as a deposit and counted as money from outside, so audits stay conserved
+     *
+     * @param rateBps - interest in basis points of the balance, 0 to 10000, rounded down per account
+     * @return - interest paid over all accounts
+     */
+    public long applyInterest(int rateBps) {
+        if (rateBps < 0 || rateBps > 10000) {
+            throw new IllegalArgumentException("interest rate " + rateBps + " bps is outside 0-10000");
+        }
+        return bulkAdjust(balance -> balance > 0 ? (int) ((long) balance * rateBps / 10000) : 0);
+    }
+
+    /**
+     * charges fee to every account whose balance matches, account by account on the bulk pool
+     * the balance is tested and charged under its stripe, an account is charged only if it has more than fee,
+     * the same rule as withdraw
+     *
+     * @param predicate - which balances are charged
+     * @param fee       - fee per account
+     * @return - fees collected over all accounts
+     */
+    public long sweepFees(IntPredicate predicate, int fee) {
+        if (fee < 0) {
+            throw new IllegalArgumentException("fee " + fee + " is negative");
+        }
+        return -bulkAdjust(balance -> predicate.test(balance) ? -fee : 0);
+    }
+
+    /**
+     * reduces a value of every balance on the bulk pool, e.g. (0, b -> b, Long::sum) for the bank total
+     * every balance is read consistently, but at different moments, so money moving during the scan
+     * may be counted in neither or both accounts, use audit for a point in time
+     *
+     * @param identity - result of no accounts
+     * @param mapper   - value of one balance
+     * @param reducer  - combines two values, must be associative
+     * @return - values of every balance reduced together
+     */
+    public long aggregate(long identity, IntToLongFunction mapper, LongBinaryOperator reducer) {
+        return Bulk.reduce(bulkPool, customers.size(), identity, id -> {
+            int balance = doGetBalance(id);
+            return balance == AccountStore.MISSING ? identity : mapper.applyAsLong(balance);//not held here, a shard
+        }, reducer);
+    }
+
+    /**
+     * changes every account by what change gives for its balance, a change that would take the account
+     * to 0 or below is not made, then waits once for the log to hold every change
+     *
+     * @return - sum of the changes made
+     */
+    private long bulkAdjust(IntUnaryOperator change) {
+        long total = Bulk.reduce(bulkPool, customers.size(), 0, id -> adjust(id, change), Long::sum);
+        TransactionLog log = transactionLog;
+        if (log != null) {
+            commit(log.position());//every record of the job is before here
+        }
+        return total;
+    }
+
+    /**
+     * changes one account atomically, logs the change and counts it as money from outside
+     *
+     * @return - the change made, 0 for none
+     */
+    private int adjust(long id, IntUnaryOperator change) {
+        if (locks == null) {
+            int g = enterGate(id);
+            int delta;
+            for (; ; ) {
+                int balance = bankDatabase.get(id);
+                delta = balance == AccountStore.MISSING ? 0 : change.applyAsInt(balance);
+                if (delta == 0 || balance + delta <= 0) {
+                    delta = 0;
+                    break;
+                }
+                if (bankDatabase.compareAndSet(id, balance, balance + delta)) {
+                    logAdjust(id, delta);
+                    break;
+                }
+            }
+            exitGate(g);
+            return delta;
+        }
+        int s = stripeFor(id);
+        lockStripe(s);
+        int balance = bankDatabase.get(id);
+        int delta = balance == AccountStore.MISSING ? 0 : change.applyAsInt(balance);
+        if (delta != 0 && balance + delta > 0) {
+            preserve(id, auditEpoch);
+            bankDatabase.put(id, balance + delta);
+            logAdjust(id, delta);
+        } else {
+            delta = 0;
+        }
+        unlockStripe(s);
+        return delta;
+    }
+
+    private void logAdjust(long id, int delta) {
+        log(delta > 0 ? TransactionLog.DEPOSIT : TransactionLog.WITHDRAW, id, -1, Math.abs(delta));
+        paid.add(delta);
+    }
+
+    /**
+     * point in time copy of every balance, taken while writers keep going
+     * starting an audit opens an epoch, the first write to an account in the epoch keeps its old balance aside,
+     * writers read the epoch once they hold their stripes, so every op is wholly before or after the audit point
+     * the audit then copies one stripe at a time: the kept balance if there is one, the live balance if not
+     * only the stripe being copied waits, needs seq lock stripes
+     *
+     * @return - balances and totals at the moment the audit started
+     */
+    public synchronized Audit audit() {
+        if (locks == null) {
+            throw new IllegalStateException("audit needs seq lock stripes, this manager runs lock-free");
+        }
+        int n = customers.size();
+        if (auditTags == null) {
+            auditTags = new int[n];
+            auditSaved = new int[n];
+            stripeMembers = Snapshot.membersByStripe(n, stripeMask + 1);
+        }
+        int epoch = ++lastAuditEpoch;
+        auditEpoch = epoch;//audit point, publishes the arrays to writers
+        int[] balances = new int[n];
+        long total = 0;
+        for (int s = 0; s < stripeMembers.length; s++) {
+            lockStripe(s * PAD);
+            for (int id : stripeMembers[s]) {
+                balances[id] = auditTags[id] == epoch ? auditSaved[id] : bankDatabase.get(id);
+                auditTags[id] = epoch;//copied, later writers need not keep anything
+                total += balances[id] == AccountStore.MISSING ? 0 : balances[id];
+            }
+            unlockStripe(s * PAD);
+        }
+        auditEpoch = 0;
+        return new Audit(balances, total, walletTotal(), openingTotal + paid.sum());
+    }
+
+    /**
+     * keeps the balance of the account for the running audit before its first change in the epoch
+     * caller holds the stripe of the account
+     *
+     * @param id    - account about to change
+     * @param epoch - auditEpoch, read once per op after taking its stripes
+     */
+    private void preserve(long id, int epoch) {
+        if (epoch != 0 && id < auditTags.length && auditTags[(int) id] != epoch) {
+            auditSaved[(int) id] = bankDatabase.get(id);
+            auditTags[(int) id] = epoch;
+        }
+    }
+
+    /**
+     * a user got paid, money entering the system from outside
+     */
+    void recordPay(int amount) {
+        paid.add(amount);
+    }
+
+    private long bankTotal() {
+        long total = 0;
+        for (int id = 0; id < customers.size(); id++) {
+            int balance = bankDatabase.get(id);
+            total += balance == AccountStore.MISSING ? 0 : balance;//a shard holds only some of the numbers
+        }
+        return total;
+    }
+
+    private long walletTotal() {
+        return customers.total();
+    }
+
+    /**
+     * writes a record to the transaction log, if there is one
+     *
+     * @return - log position of the record, 0 without a log
+     */
+    private long log(int type, long id, long to, int amount) {
+        TransactionLog log = transactionLog;
+        return log == null ? 0 : log.append(type, id, to, amount);
+    }
+
+    /**
+     * waits until the log holds everything up to the position, only blocks with a GROUP_SYNC log
+     * never called while holding a lock, so other writers can join the same force
+     *
+     * @param position - from log
+     */
+    private void commit(long position) {
+        TransactionLog log = transactionLog;
+        if (log != null) {
+            log.awaitDurable(position);
+        }
+    }
+
+    /**
+     * counts a lock-free writer into the gate of the account, only needed while logging
+     * setTransactionLog has to happen before any writer runs
+     *
+     * @return - gate stripe to exit, -1 if not entered
+     */
+    private int enterGate(long id) {
+        if (transactionLog == null) {
+            return -1;
+        }
+        int g = gate.stripeOf(id);
+        gate.enter(g);
+        return g;
+    }
+
+    private void exitGate(int g) {
+        if (g >= 0) {
+            gate.exit(g);
+        }
+    }
+
+    /**
+     * logs a batch op as the deposit or withdrawal it is
+     */
+    private long logDelta(long id, int delta) {
+        return delta >= 0 ? log(TransactionLog.DEPOSIT, id, -1, delta) : log(TransactionLog.WITHDRAW, id, -1, -delta);
+    }
+
+    /**
+     * deposit or withdrawal done by CAS on the store, for running without stripes
+     *
+     * @return - new balance, or Batch.REFUSED
+     */
+    private int addLockFree(long id, int delta) {
+        if (delta >= 0) {
+            return bankDatabase.addAndGet(id, delta);
+        }
         for (; ; ) {
-            int start = lock.get();
+            int balance = bankDatabase.get(id);
+            if (balance == AccountStore.MISSING || balance <= -delta) {
+                return Batch.REFUSED;
+            }
+            if (bankDatabase.compareAndSet(id, balance, balance + delta)) {
+                return balance + delta;
+            }
+        }
+    }
+
+    /**
+     * reads the balance without taking the lock, see readBalance
+     *
+     * @param id - user account number
+     * @return - current balance, AccountStore.MISSING if there is no such account
+     */
+    @Override
+    public int getBalance(long id) {
+        BankMetrics m = metrics;
+        if (m == null) {
+            return doGetBalance(id);
+        }
+        BankMetrics.Recorder r = m.recorder();
+        long t = r.start();
+        int result = doGetBalance(id);
+        r.record(BankMetrics.BALANCE, t, true);
+        return result;
+    }
+
+    private int doGetBalance(long id) {
+        if (locks == null) {
+            return bankDatabase.get(id);
+        }
+        return readBalance(id, stripeFor(id));
+    }
+
+    /**
+     * optimistic seq lock read, never writes to the lock or anything else shared
+     * retries whenever a writer held or changed the stripe while the balance was read, only a retry is counted
+     *
+     * @param id - user account number
+     * @param s  - stripe index of the user, from stripeFor
+     * @return - balance of the account at some point during the call
+     */
+    private int readBalance(long id, int s) {
+        for (int attempt = 0; ; attempt++) {
+            int start = locks.get(s);
             if (start % 2 == 0) {//if not locked
-                if (lock.compareAndSet(start, start + 1)) {//lock it, false if someone else has taken lock so loop again
-                    if (bankDatabase.get(id) > amount) {//if there is enough money to withdraw
-                        //then withdraw, unlock, and return true for success
-                        bankDatabase.put(id, bankDatabase.get(id) - amount);
-                        lock.incrementAndGet();
-                        return true;
-                    }
-                    //else unlock and return false for failure to withdraw
-                    lock.incrementAndGet();
-                    return false;
+                int balance = bankDatabase.get(id);
+                if (locks.get(s) == start) {//no writer got in between
+                    return balance;
                 }
             }
+            spinStats.readRetried();
+            backoff.pause(Math.min(attempt, MAX_ATTEMPT), spinStats);
         }
     }
 
+    /**
+     * @param id - user account number
+     * @return - index into locks of the stripe guarding the account
+     */
+    private int stripeFor(long id) {
+        return Snapshot.stripeOf(id, stripeMask) * PAD;
+    }
 
     /**
-     * initialize n users into people array
+     * takes the stripe from even(unlocked) to odd(locked), backing off while someone else holds it
+     *
+     * @param s - stripe index
      */
-    private void initializeUsers() {
-        for (int i = 0; i < MAX_PEOPLE; i++) {
-            Person temp = new Person(Integer.toString(i));
-            people[i] = temp;
+    private void lockStripe(int s) {
+        int start = locks.get(s);
+        if (start % 2 == 0) {//if not locked
+            if (locks.compareAndSet(s, start, start + 1)) {//lock it, false if someone else has taken lock
+                spinStats.acquired();
+                return;
+            }
+            spinStats.casFailed();
         }
+        lockContended(s);
+    }
 
-        //set runningtasks to default of -1
-        for (int i = 0; i < runningTasks.length; i++) {
-            runningTasks[i] = null;
+    /**
+     * slow path of lockStripe, waits with the backoff between tries and times the whole wait
+     *
+     * @param s - stripe index
+     */
+    private void lockContended(int s) {
+        long began = System.nanoTime();
+        Backoff b = backoff;
+        for (int attempt = 0; ; attempt++) {
+            b.pause(Math.min(attempt, MAX_ATTEMPT), spinStats);
+            int start = locks.get(s);
+            if (start % 2 == 0) {
+                if (locks.compareAndSet(s, start, start + 1)) {
+                    spinStats.acquiredAfter(System.nanoTime() - began);
+                    return;
+                }
+                spinStats.casFailed();
+            }
         }
     }
 
+    /**
+     * @param s - stripe index, must be held by the caller
+     */
+    private void unlockStripe(int s) {
+        locks.incrementAndGet(s);
+    }
+
+
+    /**
+     * initialize n users, each with random on-person money
+     */
+    private void initializeUsers() {
+        customers.open(workload.newGenerator(Workload.WALLETS));
+
+        //every user starts out free
+        freeUsers = new FreeAccountPool(customers.size(), workload.newGenerator(Workload.SHUFFLE));
+    }
+
     /**
      * initialize database with account numbers and initial money
      */
     private void initializeDatabase() {
-        for (Person p : people) {
-            //make database accounts for each person, initialize with random money from $1.00-$19,999.99
-            bankDatabase.put(p.getAccountNumber(), ThreadLocalRandom.current().nextInt(1,2000000));
+        long position = 0;
+        Workload.Generator opening = workload.newGenerator(Workload.BALANCES);
+        for (int id = 0; id < customers.size(); id++) {
+            //make database accounts for each user, initialize with random money from $1.00-$19,999.99
+            int balance = opening.nextInt(1,2000000);
+            bankDatabase.put(id, balance);
+            position = log(TransactionLog.OPEN, id, -1, balance);
         }
+        commit(position);
     }
 
-    private void execute() {
-        ExecutorService executor = Executors.newFixedThreadPool(2);
-        AtomicBoolean doRun = new AtomicBoolean(true);
-
-        Runnable taskCreator = () -> {//creates and runs tasks
-            ExecutorService taskExecutor = Executors.newCachedThreadPool();
+    /**
+     * runs every operation of the workload and returns once all of them have been applied and handed back
+     * the caller creates the tasks, blocking while every user is busy, then waits for the last user to come back
+     * clients hand their users straight back to freeUsers, there is no listener thread and nothing spins
+     * with admission set, tasks over its limit block the creator, are shed or run on the creator
+     *
+     * @return - what the run did and how long it took
+     */
+    private RunStats execute() {
+        ExecutorService taskExecutor = executorMode.newExecutor(Runtime.getRuntime().availableProcessors());
+        BankMetrics m = metrics;
+        if (m != null) {
+            m.setExecutor(taskExecutor);
+        }
+        int operations = workload.getOperations();
+        Semaphore free = new Semaphore(customers.size());//one permit per user in freeUsers
+        freePermits = free;
+        pending = new CountDownLatch(operations);//one count per user handed out
+        LongAdder blocked = new LongAdder();
+        Admission a = admission;
+        int shed = 0;
+        long start = System.nanoTime();
 
-            for (int i = 0; i < 1000; i++) {//try 1000 tasks, max 500 concurrently running
-                int user = getOpenUser();
-                Client temp = new Client(this, people[user], decideTask(), finishedTasks);
-                for (int j = 0; j < runningTasks.length; j++) {
-                    if (runningTasks[j] == null) {
-                        runningTasks[j] = people[user].getAccountNumber();
+        try {
+            Workload.Generator tasks = workload.newGenerator(0);
+            int clients = 0;
+            for (int i = 0; i < operations; clients++) {//every task, at most one running per user
+                if (batchSize > 1) {//one client sends the ops of several users
+                    Batch batch = new Batch(Math.min(batchSize, operations - i));//its own batch, the client applies it on another thread
+                    while (!batch.isFull()) {
+                        int user = getOpenUser(free, blocked);
+                        batch.add(user, drawBatchDelta(tasks, user));
                     }
-                }
-                taskExecutor.execute(temp);
-            }
-            doRun.set(false);
-            taskExecutor.shutdown();
-            while (!taskExecutor.isShutdown()) {
-
-            }//wait for executor to shutdown
-        };
-        Runnable taskListener = () -> {//listens for task completions and removes them from list of running tasks, as well as updates people list with new info
-            while (doRun.get()) {
-                try {
-                    Person done = finishedTasks.poll(1, TimeUnit.SECONDS);
-
-                    if (done != null) {
-                        //replace old memory of person
-                        for (int i = 0; i < people.length; i++) {
-                            if (done.getAccountNumber() == people[i].getAccountNumber()) {
-                                people[i] = done;
-                            }
-                        }
-                        //remove person from list of running tasks, so new ones can be made of them
-                        for (int i = 0; i < runningTasks.length; i++) {
-                            if (done.getAccountNumber() == runningTasks[i]) {
-                                runningTasks[i] = null;
-                            }
+                    if (!submit(a, taskExecutor, (int) batch.account(0), new BatchClient(this, batch))) {
+                        for (int k = 0; k < batch.size(); k++) {
+                            handBack((int) batch.account(k));
                         }
-                    } else {
-                        doRun.set(false);
+                        shed += batch.size();
                     }
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                    System.out.println("exe stack");
+                    i += batch.size();
+                    continue;
                 }
+                int user = getOpenUser(free, blocked);
+                int task = decideTask(tasks);
+                long to = task == Workload.TRANSFER ? tasks.nextAccount() : -1;
+                Client temp = new Client(this, user, task, to, drawAmount(tasks, user, task));
+                if (!submit(a, taskExecutor, user, temp)) {
+                    handBack(user);
+                    shed++;
+                }
+                i++;
+            }
+            pending.await();
+            return new RunStats(operations, clients, System.nanoTime() - start, blocked.sum(), shed);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        } finally {
+            taskExecutor.shutdown();
+            try {
+                taskExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-        };
+        }
+    }
 
-        executor.execute(taskCreator);
-        executor.execute(taskListener);
-        while (doRun.get()) {
-            //
+    /**
+     * a PARTITIONED executor runs the client on the worker owning the user's account
+     *
+     * @param user - account number of the client's (first) user
+     * @return - false if admission shed the client, it never runs and its users are still the caller's
+     */
+    private static boolean submit(Admission a, ExecutorService executor, int user, Runnable client) {
+        Executor target = executor;
+        if (executor instanceof PartitionedExecutor) {
+            PartitionedExecutor partitioned = (PartitionedExecutor) executor;
+            target = task -> partitioned.execute(user, task);
         }
-        executor.shutdown();
-        while (!executor.isShutdown()) {
-            //wait until shutdown to leave
+        if (a == null) {
+            target.execute(client);
+            return true;
         }
+        return a.execute(target, client);
     }
 
     /**
-     * keeps iterating until it randomly finds a user that is not currently being used in a task
+     * takes a user that is not currently being used in a task, blocking until one is handed back if all are in use
      *
-     * @return - int for location of open user inside person array
+     * @param free    - one permit per user in freeUsers
+     * @param blocked - time spent blocked is added here
+     * @return - account number of the open user
      */
-    private int getOpenUser() {
-        for (; ; ) {
-            boolean use = true;
-            int user = ThreadLocalRandom.current().nextInt(0, MAX_PEOPLE);
-            for (int i = 0; i < runningTasks.length; i++) {
-                if (people[user].getAccountNumber() == runningTasks[i]) {
-                    use = false;
-                    break;
-                    //if already running dont use
-                }
-            }
-            if (use) {
-                return user;
-            }
+    private int getOpenUser(Semaphore free, LongAdder blocked) {
+        if (!free.tryAcquire()) {
+            long start = System.nanoTime();
+            free.acquireUninterruptibly();
+            blocked.add(System.nanoTime() - start);
         }
+        return freeUsers.claimReleased();//a permit means a client has put a user back, or is just about to
+    }
+
+    /**
+     * gives a user back once its task is done, so new tasks can be made of it
+     *
+     * @param user - account number of the user
+     */
+    void handBack(int user) {
+        freeUsers.release(user);
+        freePermits.release();
+        pending.countDown();
+    }
+
+    Customers getCustomers() {
+        return customers;
     }
 
     /**
      * decide a task for a thread to simulate
      * 1: withdraw for purchase(read+write)
-     * 2: deposit some amount of money to be decided in threadK
+     * 2: deposit some amount of money to be decided in thread
      * 3: receive pay(no 'database' access, pay is in local user not bank)
+     * 4: transfer money from the user's account to another account(read+write of two accounts)
+     * 5: read the balance of the user's account(read only)
+     *
+     * the odds of each come from the task mix of the workload
      *
-     * @return a number from 1-3 of which task to do, that will be given to a thread
+     * @param tasks - generator of the task creator
+     * @return a number from 1-5 of which task to do, that will be given to a thread
      */
-    private int decideTask() {
-        return ThreadLocalRandom.current().nextInt(1, 4);
+    private int decideTask(Workload.Generator tasks) {
+        return tasks.nextTask();
+    }
+
+    /**
+     * draws the amount of a task from the creator's stream, so the amounts repeat with the seed
+     * the user is not running yet, so its wallet cannot change under the draw
+     *
+     * @param tasks - generator of the task creator
+     * @param user  - user the task is for
+     * @param task  - task number
+     * @return - amount of the task, 0 for a deposit the user cannot make or a task without one
+     */
+    private int drawAmount(Workload.Generator tasks, int user, int task) {
+        switch (task) {
+            case Workload.WITHDRAW://$1.00-$9,999.99
+            case Workload.TRANSFER:
+                return tasks.nextInt(1, 1000000);
+            case Workload.DEPOSIT: {//$1 to current money amount-1
+                long money = customers.getWallet(user);
+                return money > 1 ? tasks.nextInt(1, (int) Math.min(money, Integer.MAX_VALUE)) : 0;
+            }
+            case Workload.PAY:
+                return tasks.nextInt(50000, 2000000);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @param tasks - generator of the task creator
+     * @param user  - user the op is for
+     * @return - delta of a batch op, a withdrawal or a deposit at even odds
+     */
+    private int drawBatchDelta(Workload.Generator tasks, int user) {
+        return tasks.nextBoolean() ? -drawAmount(tasks, user, Workload.WITHDRAW) : drawAmount(tasks, user, Workload.DEPOSIT);
     }
 
 }
 
 
 //simulates a client connection
-class Client extends Thread {
+class Client implements Runnable {
 
     private final BankManager bm;
-    private final Person p;
+    private final int user;//account number of the user
     private final int task;
-    private BlockingQueue<Person> doneListener;
+    private final long to;//account a transfer goes to
+    private final int amount;//drawn by the task creator, see drawAmount
 
-    public Client(BankManager bm, Person p, int task, BlockingQueue<Person> bq) {
+    public Client(BankManager bm, int user, int task, long to, int amount) {
         this.bm = bm;
-        this.p = p;
+        this.user = user;
         this.task = task;
-        this.doneListener = bq;
+        this.to = to;
+        this.amount = amount;
     }
 
     @Override
     public void run() {
-        //do stuff
-        if (task == 1) {
-            //make random withdrawal $1.00-$9,999.99
-            int withdrawal = ThreadLocalRandom.current().nextInt(1, 1000000);
-            boolean success = bm.withdraw(p.getAccountNumber(), withdrawal);
-            if (success) {
-                //if successful withdrawal add to current money
-                p.setMoney(p.getMoney().get() + withdrawal);
-            }
-
-        } else if (task == 2) {
-            //make random deposit of $1 to current money amount-1
-            int deposit = ThreadLocalRandom.current().nextInt(1, p.getMoney().get());
-            bm.deposit(p.getAccountNumber(), deposit);
-            //modify on-person money
-            p.setMoney(p.getMoney().get() - deposit);
-        } else if (task == 3) {//increase money by an amount
-            p.setMoney(p.getMoney().get() + ThreadLocalRandom.current().nextInt(50000, 2000000));
-        }
+        bm.simulateIo();
+        Customers customers = bm.getCustomers();
         try {
-            doneListener.put(p);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-            System.out.println("client stack");
+            //do stuff
+            if (task == 1) {
+                //make random withdrawal $1.00-$9,999.99
+                int withdrawal = amount;
+                boolean success = bm.withdraw(user, withdrawal);
+                if (success) {
+                    //if successful withdrawal add to current money
+                    customers.addToWallet(user, withdrawal);
+                }
+
+            } else if (task == 2) {
+                //make random deposit of $1 to current money amount-1
+                if (amount > 0) {//the user had more than $0.01 to deposit
+                    int deposit = amount;
+                    bm.deposit(user, deposit);
+                    //modify on-person money
+                    customers.addToWallet(user, -deposit);
+                }
+            } else if (task == 3) {//increase money by an amount
+                int pay = amount;
+                customers.addToWallet(user, pay);
+                bm.recordPay(pay);
+            } else if (task == 4) {
+                //transfer $0.01-$9,999.99 to the chosen account, on-person money is not touched
+                bm.transfer(user, to, amount);
+            } else if (task == 5) {//check the balance, never blocks a writer
+                bm.getBalance(user);
+            }
+        } finally {//handed back even if the op failed, the run waits for every user
+            bm.handBack(user);
         }
     }
 
-    public Person getPerson() {
-        return p;
+    public int getUser() {
+        return user;
     }
 
 }
 
-class Person {
-    private String accountNumber;
-    private AtomicInteger money;
-
-    public Person(String id) {
-        this.accountNumber = id;
-
-        //initial money in USD, last two digits are change
-        this.money = new AtomicInteger(ThreadLocalRandom.current().nextInt(0, 100000));
-    }
-
-    public void printMoney() {
-        System.out.println("User #" + accountNumber + " has $" + (double) money.get() / 100);
-    }
+//simulates a client connection that sends the deposits and withdrawals of several users in one batch
+class BatchClient implements Runnable {
 
-    public void setMoney(int newMoney) {
-        money.set(newMoney);
-    }
+    private final BankManager bm;
+    private final Batch batch;//one op per user, drawn by the task creator
 
-    public AtomicInteger getMoney() {
-        return money;
+    public BatchClient(BankManager bm, Batch batch) {
+        this.bm = bm;
+        this.batch = batch;
     }
 
-    public String getAccountNumber() {
-        return accountNumber;
+    @Override
+    public void run() {
+        bm.simulateIo();
+        Customers customers = bm.getCustomers();
+        try {
+            bm.applyBatch(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                if (batch.result(i) != Batch.REFUSED) {//money moved between the bank and on-person money
+                    customers.addToWallet(batch.account(i), -batch.delta(i));
+                }
+            }
+        } finally {//handed back even if the op failed, the run waits for every user
+            for (int i = 0; i < batch.size(); i++) {
+                bm.handBack((int) batch.account(i));
+            }
+        }
     }
 }
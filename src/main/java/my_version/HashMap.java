@@ -1,78 +1,359 @@
 package my_version;
 
+import common.AccountStore;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
+ * lock-free open addressing hash map of account id to balance
+ * keys and values sit in parallel arrays and are found by linear probing
+ * a key is published by CAS into an empty slot and never changes after that
+ * a value is packed in a long with its state in the high 32 bits, so a slot can be frozen while it is copied
+ * resizing links a bigger table to the old one, every writer copies a small chunk of slots before its own work
+ * readers only ever follow that link, they never write and never wait on the copy
+ *
  * @author SeanMcGrath
  */
 public class HashMap implements Serializable {
 
-     class Entry implements Serializable {
+    private static final long serialVersionUID = 1L;
 
-        final String key;
-        int value;
-        Entry next;
-        int hash;
+    //value states, high 32 bits of a value slot
+    private static final long EMPTY = 0L;//key claimed, no value published yet
+    private static final long PRESENT = 1L << 32;
+    private static final long MOVED = 2L << 32;//frozen with a value, copied to the next table
+    private static final long MOVED_EMPTY = 3L << 32;//frozen without a value
+    private static final long STATE = 0xFFFFFFFFL << 32;
+    private static final long VALUE = 0xFFFFFFFFL;
 
-        Entry(String k, int v, Entry p, int h) {
-            key = k;
-            value = v;
-            next = p;
-            hash = h;
+    //key frozen into empty slots of a table being copied so no new key can land there
+    private static final String DEAD = new String("dead");
+
+    private static final int COPY_CHUNK = 16;
+
+    static final class Table {
+        final AtomicReferenceArray<String> keys;
+        final AtomicLongArray vals;
+        final AtomicInteger used = new AtomicInteger();//slots with a claimed key
+        final AtomicReference<Table> next = new AtomicReference<>();
+        final AtomicInteger copyIndex = new AtomicInteger();//next chunk to hand out for copying
+        final AtomicInteger copied = new AtomicInteger();//slots fully copied
+
+        Table(int n) {
+            keys = new AtomicReferenceArray<>(n);
+            vals = new AtomicLongArray(n);
         }
     }
 
-    Entry[] tab;
-    int count = 0;
+    private transient AtomicReference<Table> root;
 
     public HashMap() {
-        tab = new Entry[16];
+        root = new AtomicReference<>(new Table(16));
     }
 
+    /**
+     * @param key - account id
+     * @return - value of the key, AccountStore.MISSING if the key is not in the map
+     */
     public int get(String key) {
-        int h = key.hashCode();
-        int i = h & (tab.length - 1);
+        long v = find(root.get(), key, spread(key.hashCode()));
+        return v == EMPTY ? AccountStore.MISSING : (int) v;
+    }
+
+    /**
+     * sets the value of the key, adding the key if it is not in the map
+     *
+     * @param key   - account id
+     * @param value - new value
+     */
+    public void put(String key, int value) {
+        int h = spread(key.hashCode());
+        Table t = root.get();
+        helpCopy(t);
+        for (; ; ) {
+            int i = claim(t, key, h);
+            if (i < 0) {//no room, or slot frozen by a copy
+                t = resize(t);
+                continue;
+            }
+            long v = t.vals.get(i);
+            if ((v & STATE) >= MOVED) {
+                t = copySlot(t, i);
+                continue;
+            }
+            if (t.vals.compareAndSet(i, v, PRESENT | (value & VALUE))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * atomically adds delta to the value of the key
+     *
+     * @param key   - account id
+     * @param delta - amount to add
+     * @return - the new value, AccountStore.MISSING if the key is not in the map
+     */
+    public int addAndGet(String key, int delta) {
+        int h = spread(key.hashCode());
+        Table t = root.get();
+        helpCopy(t);
+        for (; ; ) {
+            int i = indexOf(t, key, h);
+            long v = i < 0 ? EMPTY : t.vals.get(i);
+            long state = v & STATE;
+            if (state == PRESENT) {
+                int n = (int) v + delta;
+                if (t.vals.compareAndSet(i, v, PRESENT | (n & VALUE))) {
+                    return n;
+                }
+            } else if (state >= MOVED) {
+                t = copySlot(t, i);
+            } else if ((t = t.next.get()) == null) {//not in this table or any newer one
+                return AccountStore.MISSING;
+            }
+        }
+    }
 
-        for (Entry e = tab[i]; e != null; e = e.next) {
-            if (e.hash == h && key.equals(e.key)) {
-                return e.value;
+    /**
+     * atomically sets the value of the key to update if it currently is expect
+     *
+     * @param key    - account id
+     * @param expect - value the key must have
+     * @param update - new value
+     * @return - true if the value was set, false if it was not expect or the key is not in the map
+     */
+    public boolean compareAndSet(String key, int expect, int update) {
+        int h = spread(key.hashCode());
+        Table t = root.get();
+        helpCopy(t);
+        for (; ; ) {
+            int i = indexOf(t, key, h);
+            long v = i < 0 ? EMPTY : t.vals.get(i);
+            long state = v & STATE;
+            if (state == PRESENT) {
+                if ((int) v != expect) {
+                    return false;
+                }
+                if (t.vals.compareAndSet(i, v, PRESENT | (update & VALUE))) {
+                    return true;
+                }
+            } else if (state >= MOVED) {
+                t = copySlot(t, i);
+            } else if ((t = t.next.get()) == null) {
+                return false;
             }
         }
+    }
+
+    /**
+     * looks the key up in t and then in any newer table
+     *
+     * @return - PRESENT | value, or EMPTY if the key has no value
+     */
+    private static long find(Table t, String key, int h) {
+        int i = indexOf(t, key, h);
+        long v = i < 0 ? EMPTY : t.vals.get(i);
+        long state = v & STATE;
+        if (state == PRESENT) {
+            return v;
+        }
+        Table n = t.next.get();
+        if (n == null) {
+            return EMPTY;
+        }
+        long nv = find(n, key, h);
+        if (nv == EMPTY && state == MOVED) {//copy not published yet, frozen value is still the latest
+            return PRESENT | (v & VALUE);
+        }
+        return nv;
+    }
+
+    /**
+     * @return - slot of the key in t, -1 if it is not in t
+     */
+    private static int indexOf(Table t, String key, int h) {
+        int mask = t.keys.length() - 1;
+        int i = h & mask;
+        for (int probes = 0; probes <= mask; probes++) {
+            String k = t.keys.get(i);
+            if (k == null || k == DEAD) {//end of the probe chain
+                return -1;
+            }
+            if (k == key || k.equals(key)) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
         return -1;
     }
 
-    public void put(String key, int value) {
-        int h = key.hashCode();
-        Entry[] t = tab;
-        int i = h & (t.length - 1);
-        for (Entry e = t[i]; e != null; e = e.next) {
-            if (e.hash == h && key.equals(e.key)) {
-                e.value = value;
-                return;
+    /**
+     * finds the slot of the key in t, claiming an empty slot for it if it is not there yet
+     *
+     * @return - slot of the key, -1 if t is full or frozen where the key would go
+     */
+    private int claim(Table t, String key, int h) {
+        int mask = t.keys.length() - 1;
+        int i = h & mask;
+        for (int probes = 0; probes <= mask; probes++) {
+            String k = t.keys.get(i);
+            if (k == null) {
+                if (t.keys.compareAndSet(i, null, key)) {
+                    if (t.used.incrementAndGet() > ((mask + 1) >> 1) + ((mask + 1) >> 2)) {//over 3/4 full
+                        resize(t);
+                    }
+                    return i;
+                }
+                k = t.keys.get(i);//lost the race, see who won
+            }
+            if (k == DEAD) {
+                return -1;
+            }
+            if (k == key || k.equals(key)) {
+                return i;
             }
+            i = (i + 1) & mask;
         }
-        Entry p = new Entry(key, value, t[i], h);
-        t[i] = p;
-        int c = ++count;
-        double f = t.length;
-        if ((c / f) < 0.75) {
+        return -1;
+    }
+
+    /**
+     * @return - the table t is being copied to, creating it if needed
+     */
+    private Table resize(Table t) {
+        Table n = t.next.get();
+        if (n == null) {
+            n = new Table(t.keys.length() << 1);
+            if (!t.next.compareAndSet(null, n)) {
+                n = t.next.get();
+            }
+        }
+        return n;
+    }
+
+    /**
+     * copies one chunk of t into its next table, if a copy is going on
+     * the thread that finishes the last chunk makes the next table the root
+     */
+    private void helpCopy(Table t) {
+        if (t.next.get() == null) {
             return;
         }
+        int n = t.keys.length();
+        int start = t.copyIndex.getAndAdd(COPY_CHUNK);
+        if (start >= n) {
+            return;
+        }
+        int end = Math.min(start + COPY_CHUNK, n);
+        for (int i = start; i < end; i++) {
+            copySlot(t, i);
+        }
+        if (t.copied.addAndGet(end - start) == n) {
+            root.compareAndSet(t, t.next.get());
+        }
+    }
+
+    /**
+     * freezes slot i of t and makes sure its value is in the next table
+     * safe to call any number of times from any number of threads
+     *
+     * @return - the next table
+     */
+    private Table copySlot(Table t, int i) {
+        Table n = t.next.get();
+        String k = t.keys.get(i);
+        while (k == null) {
+            if (t.keys.compareAndSet(i, null, DEAD)) {
+                return n;
+            }
+            k = t.keys.get(i);
+        }
+        if (k == DEAD) {
+            return n;
+        }
+        long v;
+        for (; ; ) {
+            v = t.vals.get(i);
+            long state = v & STATE;
+            if (state == MOVED_EMPTY) {
+                return n;
+            }
+            if (state == MOVED) {
+                break;
+            }
+            long frozen = state == EMPTY ? MOVED_EMPTY : MOVED | (v & VALUE);
+            if (t.vals.compareAndSet(i, v, frozen)) {
+                if (frozen == MOVED_EMPTY) {
+                    return n;
+                }
+                v = frozen;
+                break;
+            }
+        }
+        //publish the frozen value unless the key already has one in the new table
+        int h = spread(k.hashCode());
+        Table dest = n;
+        for (; ; ) {
+            int j = claim(dest, k, h);
+            if (j < 0) {
+                dest = resize(dest);
+                continue;
+            }
+            long dv = dest.vals.get(j);
+            if (dv == EMPTY) {
+                if (dest.vals.compareAndSet(j, EMPTY, PRESENT | (v & VALUE))) {
+                    return n;
+                }
+            } else if ((dv & STATE) == MOVED_EMPTY) {//new table is being copied as well
+                dest = resize(dest);
+            } else {
+                return n;
+            }
+        }
+    }
+
+    /**
+     * murmur3 finalizer, numeric id strings have close together hash codes that would pile up under linear probing
+     */
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
 
-        int n = t.length;
-        int newN = n << 1;
-        Entry[] newTab = new Entry[newN];
-        for (int j = 0; j < n; ++j) {
-            Entry e;
-            while ((e = t[j]) != null) {
-                t[j] = e.next;
-                int k = e.hash & (newN - 1);
-                e.next = newTab[k];
-                newTab[k] = e;
+    /**
+     * writes key/value pairs, only consistent while no writer is running
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        for (Table t = root.get(); t != null; t = t.next.get()) {
+            for (int i = 0; i < t.keys.length(); i++) {
+                long v = t.vals.get(i);
+                if ((v & STATE) == PRESENT) {
+                    out.writeObject(t.keys.get(i));
+                    out.writeInt((int) v);
+                }
             }
         }
-        tab = newTab;
+        out.writeObject(null);
     }
-}
 
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        root = new AtomicReference<>(new Table(16));
+        String key;
+        while ((key = (String) in.readObject()) != null) {
+            put(key, in.readInt());
+        }
+    }
+}
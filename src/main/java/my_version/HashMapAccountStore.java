@@ -0,0 +1,43 @@
+package my_version;
+
+import common.AccountKeys;
+import common.AccountStore;
+
+/**
+ * account store on top of the string keyed lock-free hashmap
+ * keeps the id string of every dense account number in AccountKeys
+ *
+ * @author SeanMcGrath
+ */
+class HashMapAccountStore implements AccountStore {
+
+    private final HashMap map = new HashMap();
+    private final AccountKeys keys;
+
+    /**
+     * @param accounts - account numbers below this get their id string cached
+     */
+    HashMapAccountStore(int accounts) {
+        keys = new AccountKeys(accounts);
+    }
+
+    @Override
+    public int get(long account) {
+        return map.get(keys.of(account));
+    }
+
+    @Override
+    public void put(long account, int balance) {
+        map.put(keys.of(account), balance);
+    }
+
+    @Override
+    public int addAndGet(long account, int delta) {
+        return map.addAndGet(keys.of(account), delta);
+    }
+
+    @Override
+    public boolean compareAndSet(long account, int expect, int update) {
+        return map.compareAndSet(keys.of(account), expect, update);
+    }
+}
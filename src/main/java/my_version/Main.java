@@ -8,6 +8,7 @@ public class Main {
     public static void main(String[] args) {
         BankManager bm = new BankManager();
         bm.run();
+        System.out.println(bm.getLastRun());
     }
 }
 
@@ -0,0 +1,135 @@
+package my_version;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * contention counters of the seq lock stripes of one BankManager, for tuning its Backoff
+ * an acquire is contended when the first try at the stripe failed, only those are timed
+ * counters are LongAdders so counting does not become a shared hot spot itself
+ *
+ * @author SeanMcGrath
+ */
+public final class SpinStats {
+
+    private final LongAdder acquires = new LongAdder();
+    private final LongAdder contended = new LongAdder();
+    private final LongAdder casFailures = new LongAdder();
+    private final LongAdder readRetries = new LongAdder();
+    private final LongAdder spins = new LongAdder();
+    private final LongAdder yields = new LongAdder();
+    private final LongAdder parks = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+
+    void acquired() {
+        acquires.increment();
+    }
+
+    /**
+     * @param nanos - from the first failed try to getting the stripe
+     */
+    void acquiredAfter(long nanos) {
+        acquires.increment();
+        contended.increment();
+        waitNanos.add(nanos);
+        maxWaitNanos.accumulate(nanos);
+    }
+
+    void casFailed() {
+        casFailures.increment();
+    }
+
+    void readRetried() {
+        readRetries.increment();
+    }
+
+    void spun(int n) {
+        spins.add(n);
+    }
+
+    void yielded() {
+        yields.increment();
+    }
+
+    void parked() {
+        parks.increment();
+    }
+
+    /**
+     * @return - stripes locked
+     */
+    public long getAcquires() {
+        return acquires.sum();
+    }
+
+    /**
+     * @return - stripes locked only after waiting
+     */
+    public long getContended() {
+        return contended.sum();
+    }
+
+    /**
+     * @return - compareAndSets that lost to another writer
+     */
+    public long getCasFailures() {
+        return casFailures.sum();
+    }
+
+    /**
+     * @return - optimistic reads that had to be done again because a writer got in
+     */
+    public long getReadRetries() {
+        return readRetries.sum();
+    }
+
+    /**
+     * @return - onSpinWait calls while backing off
+     */
+    public long getSpins() {
+        return spins.sum();
+    }
+
+    public long getYields() {
+        return yields.sum();
+    }
+
+    public long getParks() {
+        return parks.sum();
+    }
+
+    /**
+     * @return - mean wait of a contended acquire in nanoseconds
+     */
+    public double getMeanWaitNanos() {
+        long n = contended.sum();
+        return n == 0 ? 0 : (double) waitNanos.sum() / n;
+    }
+
+    public long getMaxWaitNanos() {
+        return maxWaitNanos.get();
+    }
+
+    /**
+     * zeroes every counter, counts taken while resetting may be lost
+     */
+    public void reset() {
+        acquires.reset();
+        contended.reset();
+        casFailures.reset();
+        readRetries.reset();
+        spins.reset();
+        yields.reset();
+        parks.reset();
+        waitNanos.reset();
+        maxWaitNanos.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("acquires %d, contended %d, cas failures %d, read retries %d, spins %d, yields %d, parks %d, wait ns mean %.0f max %d",
+                getAcquires(), getContended(), getCasFailures(), getReadRetries(), getSpins(), getYields(), getParks(),
+                getMeanWaitNanos(), getMaxWaitNanos());
+    }
+}
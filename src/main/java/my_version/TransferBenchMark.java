@@ -0,0 +1,67 @@
+package my_version;
+
+import common.Workload;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * mixed transfer/deposit/withdraw throughput
+ * transferPercent is the share of operations that are transfers, the rest is split between deposit and withdraw
+ * distribution decides how skewed the account picks are, ZIPF and HOTSPOT pile onto a few hot accounts
+ *
+ * @author SeanMcGrath
+ */
+@State(Scope.Benchmark)
+public class TransferBenchMark {
+
+    @Param({"0", "50", "90"})
+    public int transferPercent;
+
+    @Param({"UNIFORM", "ZIPF", "HOTSPOT"})
+    public Workload.Distribution distribution;
+
+    private BankManager bm;
+    private Workload workload;
+
+    @State(Scope.Thread)
+    public static class Ops {
+        Workload.Generator generator;
+
+        @Setup
+        public void setup(TransferBenchMark bench) {
+            generator = bench.workload.newGenerator(Thread.currentThread().getId());
+        }
+    }
+
+    @Setup
+    public void setup() {
+        workload = new Workload();
+        int rest = 100 - transferPercent;
+        workload.setMix(rest / 2, rest - rest / 2, transferPercent);
+        workload.setDistribution(distribution);
+        bm = new BankManager(BankManager.DEFAULT_STRIPES, workload);
+        bm.initialize();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Threads(Threads.MAX)
+    public boolean mixed(Ops ops) {
+        Workload.Generator g = ops.generator;
+        switch (g.nextTask()) {
+            case Workload.TRANSFER:
+                return bm.transfer(g.nextAccount(), g.nextAccount(), 1);
+            case Workload.DEPOSIT:
+                bm.deposit(g.nextAccount(), 1);
+                return true;
+            default:
+                return bm.withdraw(g.nextAccount(), 1);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * non-blocking TCP server for Protocol
+ * an acceptor thread hands new connections round robin to a few selector threads, each serves its connections alone
+ * clients may pipeline: every complete request in a read is answered, and all of their replies go out in one write
+ * connection buffers are direct and come from a pool
+ *
+ * @author SeanMcGrath
+ */
+public class BankServer implements Closeable {
+
+    static final int IN_BUFFER = Protocol.REQUEST * 512;
+    static final int OUT_BUFFER = IN_BUFFER / Protocol.REQUEST * Protocol.REPLY;//room for a reply to every buffered request
+
+    private final RequestHandler handler;
+    private final ServerSocketChannel server;
+    private final Worker[] workers;
+    private final Thread acceptor;
+    private final BufferPool inPool = new BufferPool(IN_BUFFER);
+    private final BufferPool outPool = new BufferPool(OUT_BUFFER);
+    private volatile boolean closed;
+
+    /**
+     * binds and starts serving with one selector thread
+     *
+     * @param handler - runs the requests
+     * @param address - address to listen on, port 0 picks a free port
+     */
+    public BankServer(RequestHandler handler, InetSocketAddress address) {
+        this(handler, address, 1);
+    }
+
+    /**
+     * binds and starts serving
+     *
+     * @param handler   - runs the requests
+     * @param address   - address to listen on, port 0 picks a free port
+     * @param selectors - selector threads
+     */
+    public BankServer(RequestHandler handler, InetSocketAddress address, int selectors) {
+        this.handler = handler;
+        try {
+            server = ServerSocketChannel.open();
+            server.bind(address);
+            workers = new Worker[Math.max(1, selectors)];
+            for (int i = 0; i < workers.length; i++) {
+                workers[i] = new Worker(i);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        acceptor = new Thread(this::accept, "bank-server-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return - address the server is listening on
+     */
+    public InetSocketAddress getAddress() {
+        try {
+            return (InetSocketAddress) server.getLocalAddress();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void accept() {
+        int next = 0;
+        while (!closed) {
+            try {
+                SocketChannel c = server.accept();
+                c.configureBlocking(false);
+                c.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                workers[next].add(c);
+                next = (next + 1) % workers.length;
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                if (!closed) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * buffers of one connection, replies wait in out when the socket cannot take them yet
+     */
+    private static final class Connection {
+        final ByteBuffer in;
+        final ByteBuffer out;
+
+        Connection(ByteBuffer in, ByteBuffer out) {
+            this.in = in;
+            this.out = out;
+        }
+    }
+
+    /**
+     * one selector thread and the connections it serves
+     */
+    private final class Worker {
+        final Selector selector;
+        final ConcurrentLinkedQueue<SocketChannel> added = new ConcurrentLinkedQueue<>();
+        final Thread thread;
+
+        Worker(int index) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this::serve, "bank-server-" + index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void add(SocketChannel c) {
+            added.add(c);
+            selector.wakeup();
+        }
+
+        private void serve() {
+            while (!closed) {
+                try {
+                    selector.select();
+                    SocketChannel c;
+                    while ((c = added.poll()) != null) {
+                        c.register(selector, SelectionKey.OP_READ, new Connection(inPool.acquire(), outPool.acquire()));
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        try {
+                            if (key.isWritable()) {
+                                write(key);
+                            }
+                            if (key.isValid() && key.isReadable()) {
+                                read(key);
+                            }
+                        } catch (IOException e) {//that client is gone, the others carry on
+                            drop(key);
+                        } catch (RuntimeException e) {//a request the ledger failed on closes only its connection
+                            e.printStackTrace();
+                            drop(key);
+                        }
+                    }
+                } catch (IOException e) {
+                    if (!closed) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                drop(key);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private void read(SelectionKey key) throws IOException {
+            Connection conn = (Connection) key.attachment();
+            if (((SocketChannel) key.channel()).read(conn.in) < 0) {
+                throw new IOException("closed by client");
+            }
+            conn.in.flip();
+            while (conn.in.remaining() >= Protocol.REQUEST) {
+                int op = conn.in.getInt();
+                int amount = conn.in.getInt();
+                long account = conn.in.getLong();
+                long arg = conn.in.getLong();
+                conn.out.putLong(handler.handle(op, account, arg, amount));
+            }
+            conn.in.compact();
+            write(key);
+        }
+
+        private void write(SelectionKey key) throws IOException {
+            Connection conn = (Connection) key.attachment();
+            conn.out.flip();
+            ((SocketChannel) key.channel()).write(conn.out);
+            conn.out.compact();
+            //stop reading until the replies are out, keeps a fast client from outrunning its replies
+            key.interestOps(conn.out.position() > 0 ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+
+        private void drop(SelectionKey key) {
+            key.cancel();
+            Connection conn = (Connection) key.attachment();
+            if (conn != null) {
+                inPool.release(conn.in);
+                outPool.release(conn.out);
+                key.attach(null);
+            }
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * stops accepting, closes every connection and waits for the threads to finish
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            server.close();
+            acceptor.join();
+            for (Worker w : workers) {
+                w.selector.wakeup();
+                w.thread.join();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
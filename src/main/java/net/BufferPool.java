@@ -0,0 +1,42 @@
+package net;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * direct buffers of one size, reused across connections
+ * a direct buffer is slow to allocate and only freed by the GC, so connections borrow them instead
+ *
+ * @author SeanMcGrath
+ */
+public class BufferPool {
+
+    private final int size;
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param size - bytes per buffer
+     */
+    public BufferPool(int size) {
+        this.size = size;
+    }
+
+    /**
+     * @return - a cleared buffer in native order, new if none is free
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer b = free.poll();
+        if (b == null) {
+            return ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+        }
+        return b.clear();
+    }
+
+    /**
+     * @param b - buffer from acquire, not to be used after this
+     */
+    public void release(ByteBuffer b) {
+        free.offer(b);
+    }
+}
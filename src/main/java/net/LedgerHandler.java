@@ -0,0 +1,44 @@
+package net;
+
+import common.Batch;
+import common.Ledger;
+
+/**
+ * serves the client ops of Protocol from any ledger
+ *
+ * @author SeanMcGrath
+ */
+public class LedgerHandler implements RequestHandler {
+
+    private final Ledger ledger;
+    //batch of one op for APPLY, one per connection thread and cleared for every request
+    private final ThreadLocal<Batch> one = ThreadLocal.withInitial(() -> new Batch(1));
+
+    public LedgerHandler(Ledger ledger) {
+        this.ledger = ledger;
+    }
+
+    @Override
+    public long handle(int op, long account, long arg, int amount) {
+        switch (op) {
+            case Protocol.DEPOSIT:
+                ledger.deposit(account, amount);
+                return 0;
+            case Protocol.WITHDRAW:
+                return ledger.withdraw(account, amount) ? 1 : 0;
+            case Protocol.BALANCE:
+                return ledger.getBalance(account);
+            case Protocol.TRANSFER:
+                return ledger.transfer(account, arg, amount) ? 1 : 0;
+            case Protocol.APPLY: {
+                Batch batch = one.get();
+                batch.clear();
+                batch.add(account, amount);
+                ledger.applyBatch(batch);
+                return batch.result(0);
+            }
+            default:
+                throw new IllegalArgumentException("unknown op " + op);
+        }
+    }
+}
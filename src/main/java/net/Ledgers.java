@@ -0,0 +1,55 @@
+package net;
+
+import common.AccountCells;
+import common.Ledger;
+import common.Workload;
+
+/**
+ * builds an initialized ledger of each implementation, for the network server and the benchmarks
+ *
+ * @author SeanMcGrath
+ */
+public final class Ledgers {
+
+    private Ledgers() {
+    }
+
+    /**
+     * @param implementation - seqlock, lockfree, jdk, cells or ring
+     * @param workload       - gives the number of accounts
+     * @return - a ledger with every account opened
+     */
+    public static Ledger create(String implementation, Workload workload) {
+        switch (implementation) {
+            case "seqlock": {
+                my_version.BankManager bm = new my_version.BankManager(64, workload);
+                bm.initialize();
+                return bm;
+            }
+            case "lockfree": {
+                my_version.BankManager bm = new my_version.BankManager(0, workload);
+                bm.initialize();
+                return bm;
+            }
+            case "jdk": {
+                jdk_version.BankManager bm = new jdk_version.BankManager(workload);
+                bm.initialize();
+                return bm;
+            }
+            case "cells": {//jdk version on AccountCells
+                jdk_version.BankManager bm = new jdk_version.BankManager(new AccountCells(workload.getAccounts()), workload);
+                bm.initialize();
+                return bm;
+            }
+            case "ring": {
+                //one writer per two cores leaves the rest for callers, yield so it stays usable on few cores
+                int partitions = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+                ring_version.RingLedger ring = new ring_version.RingLedger(workload, partitions, ring_version.WaitStrategy.YIELD);
+                ring.initialize();
+                return ring;
+            }
+            default:
+                throw new IllegalArgumentException("unknown ledger implementation " + implementation);
+        }
+    }
+}
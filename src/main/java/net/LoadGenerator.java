@@ -0,0 +1,223 @@
+package net;
+
+import common.Workload;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+/**
+ * drives a BankServer over TCP, the networked counterpart of the in-process Client tasks
+ * every connection runs on its own thread and keeps depth requests in flight,
+ * as replies come back it sends as many new requests in one write
+ * latency is from the write of a request to the read of its reply, so it includes queueing in the pipeline
+ * usage: LoadGenerator host port connections depth seconds [accounts]
+ *
+ * @author SeanMcGrath
+ */
+public class LoadGenerator {
+
+    private static final int MAX_SAMPLES = 1 << 21;//per connection, later replies are counted but not timed
+
+    /**
+     * what a run measured
+     */
+    public static class Result {
+        private final long ops;
+        private final long nanos;
+        private final long[] latencies;//sorted
+
+        Result(long ops, long nanos, long[] latencies) {
+            this.ops = ops;
+            this.nanos = nanos;
+            this.latencies = latencies;
+        }
+
+        public long getOps() {
+            return ops;
+        }
+
+        /**
+         * @return - replies per second
+         */
+        public double getThroughput() {
+            return ops * 1e9 / nanos;
+        }
+
+        /**
+         * @param p - percentile, 0 to 100
+         * @return - latency in nanoseconds
+         */
+        public long percentile(double p) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int i = (int) Math.ceil(p / 100 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(latencies.length - 1, i))];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d ops, %.0f ops/s, latency us p50 %.1f p90 %.1f p99 %.1f p99.9 %.1f max %.1f",
+                    ops, getThroughput(), percentile(50) / 1e3, percentile(90) / 1e3, percentile(99) / 1e3,
+                    percentile(99.9) / 1e3, percentile(100) / 1e3);
+        }
+    }
+
+    /**
+     * one connection and its pipeline
+     */
+    private static final class Connection implements Runnable {
+        final InetSocketAddress address;
+        final Workload.Generator generator;
+        final int depth;
+        final long end;
+        final long[] sent;//send time of request k at k % depth, replies come back in order
+        long[] samples = new long[1024];
+        int sampled;
+        long ops;
+
+        Connection(InetSocketAddress address, Workload.Generator generator, int depth, long end) {
+            this.address = address;
+            this.generator = generator;
+            this.depth = depth;
+            this.end = end;
+            this.sent = new long[depth];
+        }
+
+        @Override
+        public void run() {
+            try (SocketChannel channel = SocketChannel.open(address)) {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                ByteBuffer out = ByteBuffer.allocateDirect(Protocol.REQUEST * depth).order(ByteOrder.nativeOrder());
+                ByteBuffer in = ByteBuffer.allocateDirect(Protocol.REPLY * depth).order(ByteOrder.nativeOrder());
+                long head = 0;//next reply expected
+                long tail = send(channel, out, 0, depth);
+                long now;
+                while ((now = System.nanoTime()) < end || head < tail) {
+                    if (channel.read(in) < 0) {
+                        throw new IOException("closed by server");
+                    }
+                    long received = System.nanoTime();
+                    in.flip();
+                    int n = in.remaining() / Protocol.REPLY;
+                    for (int k = 0; k < n; k++) {
+                        record(received - sent[(int) (head++ % depth)]);
+                    }
+                    in.position(n * Protocol.REPLY);
+                    in.compact();
+                    if (now < end) {//keep the pipeline full until time is up, then drain it
+                        tail = send(channel, out, tail, n);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * writes n requests in one go
+         *
+         * @return - tail after the new requests
+         */
+        private long send(SocketChannel channel, ByteBuffer out, long tail, int n) throws IOException {
+            out.clear();
+            for (int k = 0; k < n; k++) {
+                Workload.Generator g = generator;
+                switch (g.nextTask()) {
+                    case Workload.WITHDRAW:
+                        Protocol.putRequest(out, Protocol.WITHDRAW, g.nextAccount(), 0, 1 + g.nextInt(1000000));
+                        break;
+                    case Workload.DEPOSIT:
+                        Protocol.putRequest(out, Protocol.DEPOSIT, g.nextAccount(), 0, 1 + g.nextInt(1000000));
+                        break;
+                    case Workload.TRANSFER:
+                        Protocol.putRequest(out, Protocol.TRANSFER, g.nextAccount(), g.nextAccount(), 1 + g.nextInt(1000000));
+                        break;
+                    case Workload.BALANCE:
+                    default://PAY has no bank side, read the balance instead
+                        Protocol.putRequest(out, Protocol.BALANCE, g.nextAccount(), 0, 0);
+                }
+            }
+            out.flip();
+            long now = System.nanoTime();
+            for (int k = 0; k < n; k++) {
+                sent[(int) (tail++ % depth)] = now;
+            }
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            return tail;
+        }
+
+        private void record(long latency) {
+            ops++;
+            if (sampled == MAX_SAMPLES) {
+                return;
+            }
+            if (sampled == samples.length) {
+                samples = Arrays.copyOf(samples, samples.length * 2);
+            }
+            samples[sampled++] = latency;
+        }
+    }
+
+    /**
+     * runs connections against the server for the given time
+     *
+     * @param address     - server address
+     * @param workload    - task mix and accounts, every connection gets its own stream
+     * @param connections - connections, one thread each
+     * @param depth       - requests in flight per connection
+     * @param nanos       - how long to send for
+     * @return - throughput and latency
+     */
+    public static Result run(InetSocketAddress address, Workload workload, int connections, int depth, long nanos)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        Connection[] conns = new Connection[connections];
+        Thread[] threads = new Thread[connections];
+        for (int i = 0; i < connections; i++) {
+            conns[i] = new Connection(address, workload.newGenerator(i), depth, start + nanos);
+            threads[i] = new Thread(conns[i], "load-" + i);
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        long ops = 0;
+        int samples = 0;
+        for (Connection c : conns) {
+            ops += c.ops;
+            samples += c.sampled;
+        }
+        long[] all = new long[samples];
+        int k = 0;
+        for (Connection c : conns) {
+            System.arraycopy(c.samples, 0, all, k, c.sampled);
+            k += c.sampled;
+        }
+        Arrays.sort(all);
+        return new Result(ops, elapsed, all);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 5) {
+            System.out.println("usage: LoadGenerator host port connections depth seconds [accounts]");
+            return;
+        }
+        Workload workload = new Workload();
+        if (args.length > 5) {
+            workload.setAccounts(Integer.parseInt(args[5]));
+        }
+        Result r = run(new InetSocketAddress(args[0], Integer.parseInt(args[1])), workload,
+                Integer.parseInt(args[2]), Integer.parseInt(args[3]), Long.parseLong(args[4]) * 1_000_000_000L);
+        System.out.println(r);
+    }
+}
@@ -0,0 +1,36 @@
+package net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * wire format of the bank server, between clients and the bank and between a router and its shards
+ * request, 24 bytes: [int op][int amount][long account][long arg]
+ * reply, 8 bytes: [long value]
+ * arg is the to account of a transfer and the transaction id of the two phase commit ops
+ *
+ * @author SeanMcGrath
+ */
+public final class Protocol {
+
+    public static final int REQUEST = 24;
+    public static final int REPLY = 8;
+
+    //ops
+    public static final int DEPOSIT = 1;//reply 0
+    public static final int WITHDRAW = 2;//reply 1 if withdrawn, 0 if not
+    public static final int BALANCE = 3;//reply balance, AccountStore.MISSING if no such account
+    public static final int TRANSFER = 4;//reply 1 if moved, 0 if not, to a shard only with both accounts on it
+    //two phase commit, only between a router and its shards
+    public static final int PREPARE_DEBIT = 5;//takes amount into escrow, reply 1 = yes vote, 0 = no
+    public static final int PREPARE_CREDIT = 6;//checks the account, reply 1 = yes vote, 0 = no
+    public static final int COMMIT = 7;//reply 0
+    public static final int ABORT = 8;//reply 0
+    public static final int APPLY = 9;//batch op, amount is the delta, reply new balance or Batch.REFUSED
+
+    private Protocol() {
+    }
+
+    public static void putRequest(ByteBuffer b, int op, long account, long arg, int amount) {
+        b.putInt(op).putInt(amount).putLong(account).putLong(arg);
+    }
+}
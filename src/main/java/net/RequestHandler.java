@@ -0,0 +1,21 @@
+package net;
+
+/**
+ * what a BankServer runs each request on
+ * called from the server's selector threads, so it must be thread safe
+ *
+ * @author SeanMcGrath
+ */
+public interface RequestHandler {
+
+    /**
+     * runs one request, see Protocol
+     *
+     * @param op      - op from Protocol
+     * @param account - account number
+     * @param arg     - to account or transaction id
+     * @param amount  - amount of money
+     * @return - reply value
+     */
+    long handle(int op, long account, long arg, int amount);
+}
@@ -0,0 +1,31 @@
+package net;
+
+import common.Workload;
+
+import java.net.InetSocketAddress;
+
+/**
+ * serves a bank over TCP until killed, drive it with LoadGenerator
+ * usage: ServerMain port [seqlock|lockfree|jdk|cells|ring] [accounts] [selectors]
+ *
+ * @author SeanMcGrath
+ */
+public class ServerMain {
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 1) {
+            System.out.println("usage: ServerMain port [seqlock|lockfree|jdk|cells|ring] [accounts] [selectors]");
+            return;
+        }
+        String implementation = args.length > 1 ? args[1] : "seqlock";
+        Workload workload = new Workload();
+        if (args.length > 2) {
+            workload.setAccounts(Integer.parseInt(args[2]));
+        }
+        int selectors = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        BankServer server = new BankServer(new LedgerHandler(Ledgers.create(implementation, workload)),
+                new InetSocketAddress("127.0.0.1", Integer.parseInt(args[0])), selectors);
+        System.out.println(implementation + " bank with " + workload.getAccounts() + " accounts listening on " + server.getAddress());
+        Thread.currentThread().join();//serve until killed
+    }
+}
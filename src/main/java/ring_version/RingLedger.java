@@ -0,0 +1,368 @@
+package ring_version;
+
+import common.AccountStore;
+import common.Batch;
+import common.Ledger;
+import common.Snapshot;
+import common.Workload;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * ledger where every account belongs to one partition and only that partition's writer thread ever touches it
+ * callers publish commands into the partition's ring of pre-allocated command slots and wait on its done sequence,
+ * the writer applies commands in ring order on plain arrays, no locks and no CAS on balances
+ * account a lives in partition a & (partitions-1) at index a >> log2(partitions)
+ * a transfer inside one partition is one command, across partitions it is a withdrawal then a deposit,
+ * so the money is briefly in neither account, the same as in jdk_version
+ *
+ * @author SeanMcGrath
+ */
+public class RingLedger implements Ledger {
+
+    static final int DEFAULT_RING = 1024;
+
+    //command ops
+    private static final int DEPOSIT = 1;
+    private static final int WITHDRAW = 2;
+    private static final int BALANCE = 3;
+    private static final int TRANSFER = 4;
+    private static final int APPLY = 5;
+    private static final int COPY = 6;
+
+    private static final int REFUSED = Batch.REFUSED;
+
+    private final Partition[] partitions;
+    private final int partitionMask;
+    private final int partitionShift;
+    private final int accounts;
+    private final Workload.Generator opening;//opening balances, used once by initialize
+    private final WaitStrategy waitStrategy;
+    //result slot of the calling thread for single ops
+    private final ThreadLocal<int[]> reply = ThreadLocal.withInitial(() -> new int[1]);
+    //result slots and last sequence per partition of the calling thread's batches, made on its first batch
+    //and grown to the biggest batch it sends
+    private final ThreadLocal<int[]> batchResults = new ThreadLocal<>();
+    private final ThreadLocal<long[]> batchLast = new ThreadLocal<>();
+
+    /**
+     * @param workload     - gives the number of accounts
+     * @param partitions   - writer threads, rounded up to a power of two
+     * @param waitStrategy - how writers and callers wait
+     */
+    public RingLedger(Workload workload, int partitions, WaitStrategy waitStrategy) {
+        this(workload, partitions, waitStrategy, DEFAULT_RING);
+    }
+
+    /**
+     * @param workload     - gives the number of accounts
+     * @param partitions   - writer threads, rounded up to a power of two
+     * @param waitStrategy - how writers and callers wait
+     * @param ringSize     - command slots per partition, rounded up to a power of two
+     */
+    public RingLedger(Workload workload, int partitions, WaitStrategy waitStrategy, int ringSize) {
+        int n = 1;
+        while (n < partitions) {
+            n <<= 1;
+        }
+        int size = 1;
+        while (size < ringSize) {
+            size <<= 1;
+        }
+        this.partitions = new Partition[n];
+        this.partitionMask = n - 1;
+        this.partitionShift = Integer.numberOfTrailingZeros(n);
+        this.accounts = workload.getAccounts();
+        this.opening = workload.newGenerator(Workload.BALANCES);
+        this.waitStrategy = waitStrategy;
+        for (int p = 0; p < n; p++) {
+            int owned = (accounts - p + n - 1) / n;//accounts p, p+n, p+2n, ...
+            this.partitions[p] = new Partition(p, size, Math.max(0, owned));
+        }
+    }
+
+    /**
+     * opens every account with random money from $1.00-$19,999.99 and starts the writer threads
+     */
+    public void initialize() {
+        for (int a = 0; a < accounts; a++) {
+            partitions[a & partitionMask].balances[a >> partitionShift] = opening.nextInt(1, 2000000);
+        }
+        for (Partition p : partitions) {
+            p.writer.start();//start publishes the balances to the writer
+        }
+    }
+
+    /**
+     * stops the writer threads once they have applied everything published
+     */
+    public void close() {
+        for (Partition p : partitions) {
+            p.running = false;
+        }
+        for (Partition p : partitions) {
+            try {
+                p.writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    @Override
+    public void deposit(long id, int amount) {
+        call(id, DEPOSIT, 0, amount);
+    }
+
+    @Override
+    public boolean withdraw(long id, int amount) {
+        return call(id, WITHDRAW, 0, amount) != REFUSED;
+    }
+
+    /**
+     * read by the owning writer, so it sees every command published before it
+     */
+    @Override
+    public int getBalance(long id) {
+        return call(id, BALANCE, 0, 0);
+    }
+
+    @Override
+    public boolean transfer(long from, long to, int amount) {
+        if ((from & partitionMask) == (to & partitionMask)) {
+            return call(from, TRANSFER, to, amount) != REFUSED;
+        }
+        if (to < 0 || to >= accounts || call(from, WITHDRAW, 0, amount) == REFUSED) {
+            return false;
+        }
+        if (call(to, DEPOSIT, 0, amount) == REFUSED) {//cannot happen for a valid to, but never lose the money
+            call(from, DEPOSIT, 0, amount);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * publishes every op before waiting, then waits once per partition for the last op it got
+     * the result slots are the calling thread's own and reused, every writer is done with them before this returns
+     */
+    @Override
+    public int applyBatch(Batch batch) {
+        int n = batch.size();
+        int[] results = batchResults.get();
+        if (results == null || results.length < n) {
+            results = new int[n];
+            batchResults.set(results);
+        }
+        long[] last = batchLast.get();
+        if (last == null) {
+            last = new long[partitions.length];
+            batchLast.set(last);
+        }
+        Arrays.fill(last, -1);
+        for (int i = 0; i < n; i++) {
+            long id = batch.account(i);
+            if (id < 0 || id >= accounts) {
+                results[i] = REFUSED;
+                continue;
+            }
+            int p = (int) (id & partitionMask);
+            last[p] = partitions[p].publish(APPLY, id, 0, batch.delta(i), results, i);
+        }
+        int applied = 0;
+        for (int p = 0; p < partitions.length; p++) {
+            if (last[p] >= 0) {
+                partitions[p].await(last[p]);
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            batch.setResult(i, results[i]);
+            if (results[i] != REFUSED) {
+                applied++;
+            }
+        }
+        return applied;
+    }
+
+    @Override
+    public int getAccounts() {
+        return accounts;
+    }
+
+    /**
+     * every writer copies its own balances, no lock and no pause
+     * partitions copy at slightly different times, so a transfer across two of them can be half in the snapshot
+     */
+    @Override
+    public Path snapshot(Path dir) {
+        int[] balances = new int[accounts];
+        long[] seqs = new long[partitions.length];
+        for (int p = 0; p < partitions.length; p++) {
+            seqs[p] = partitions[p].publish(COPY, 0, 0, 0, balances, 0);
+        }
+        for (int p = 0; p < partitions.length; p++) {
+            partitions[p].await(seqs[p]);
+        }
+        return Snapshot.write(dir, balances, new long[]{0});
+    }
+
+    /**
+     * publishes one command and waits for its result
+     */
+    private int call(long id, int op, long to, int amount) {
+        if (id < 0 || id >= accounts || (op == TRANSFER && (to < 0 || to >= accounts))) {
+            return op == BALANCE ? AccountStore.MISSING : REFUSED;
+        }
+        int[] result = reply.get();
+        Partition p = partitions[(int) (id & partitionMask)];
+        p.await(p.publish(op, id, to, amount, result, 0));
+        return result[0];
+    }
+
+    /**
+     * pre-allocated, reused command, only ever written by the caller that claimed it and read by the writer
+     */
+    private static final class Command {
+        int op;
+        long account;
+        long to;
+        int amount;
+        int[] results;//where the writer puts the result
+        int index;
+    }
+
+    /**
+     * one ring, one writer thread and the accounts it owns
+     */
+    private final class Partition implements Runnable {
+        private static final int PAD = 16;//longs between two sequences, keeps each on its own cache line
+        private static final int CLAIM = PAD;//next sequence to hand out
+        private static final int DONE = 2 * PAD;//last sequence applied
+
+        final int[] balances;
+        final Command[] slots;
+        final AtomicLongArray published;//sequence last published in each slot
+        final AtomicLongArray sequences = new AtomicLongArray(3 * PAD);
+        final int mask;
+        final int index;
+        final Thread writer;
+        volatile boolean running = true;
+
+        Partition(int index, int size, int owned) {
+            this.index = index;
+            this.balances = new int[owned];
+            this.slots = new Command[size];
+            for (int i = 0; i < size; i++) {
+                slots[i] = new Command();
+            }
+            this.published = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) {
+                published.set(i, -1);
+            }
+            this.mask = size - 1;
+            sequences.set(DONE, -1);
+            writer = new Thread(this, "ring-writer-" + index);
+            writer.setDaemon(true);
+        }
+
+        /**
+         * claims a slot, waits for the writer to have freed it, fills it and makes it visible to the writer
+         *
+         * @return - sequence of the command, give it to await
+         */
+        long publish(int op, long account, long to, int amount, int[] results, int resultIndex) {
+            long seq = sequences.getAndIncrement(CLAIM);
+            for (int n = 0; seq - slots.length > sequences.get(DONE); n++) {//ring full, wait for the writer
+                waitStrategy.idle(n);
+            }
+            Command c = slots[(int) (seq & mask)];
+            c.op = op;
+            c.account = account;
+            c.to = to;
+            c.amount = amount;
+            c.results = results;
+            c.index = resultIndex;
+            published.lazySet((int) (seq & mask), seq);//release, the writer reads the fields after seeing seq
+            return seq;
+        }
+
+        /**
+         * waits until the writer has applied the command, its result is then in place
+         */
+        void await(long seq) {
+            for (int n = 0; sequences.get(DONE) < seq; n++) {
+                waitStrategy.idle(n);
+            }
+        }
+
+        @Override
+        public void run() {
+            long next = 0;
+            int idle = 0;
+            while (running || next < sequences.get(CLAIM)) {
+                long last = next - 1;
+                //apply every command published in order, stop at the first gap
+                while (published.get((int) ((last + 1) & mask)) == last + 1) {
+                    last++;
+                    apply(slots[(int) (last & mask)]);
+                }
+                if (last < next) {
+                    waitStrategy.idle(idle++);
+                    continue;
+                }
+                idle = 0;
+                sequences.lazySet(DONE, last);//one release for the whole run of commands
+                next = last + 1;
+            }
+        }
+
+        private void apply(Command c) {
+            int i = (int) (c.account >> partitionShift);
+            int result;
+            switch (c.op) {
+                case DEPOSIT:
+                    result = balances[i] += c.amount;
+                    break;
+                case WITHDRAW:
+                    result = REFUSED;
+                    if (balances[i] > c.amount) {//same rule as the other versions
+                        result = balances[i] -= c.amount;
+                    }
+                    break;
+                case BALANCE:
+                    result = balances[i];
+                    break;
+                case TRANSFER: {
+                    result = REFUSED;
+                    int t = (int) (c.to >> partitionShift);
+                    if (balances[i] > c.amount) {
+                        balances[i] -= c.amount;
+                        balances[t] += c.amount;
+                        result = balances[i];
+                    }
+                    break;
+                }
+                case APPLY:
+                    result = REFUSED;
+                    if (c.amount >= 0 || balances[i] > -c.amount) {//same rule as withdraw
+                        result = balances[i] += c.amount;
+                    }
+                    break;
+                case COPY:
+                    for (int k = 0; k < balances.length; k++) {
+                        c.results[(k << partitionShift) | index] = balances[k];
+                    }
+                    return;
+                default:
+                    throw new IllegalStateException("unknown command " + c.op);
+            }
+            c.results[c.index] = result;
+        }
+    }
+}
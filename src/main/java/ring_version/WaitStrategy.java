@@ -0,0 +1,53 @@
+package ring_version;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * how a thread waits on a sequence, both the writers waiting for commands and the callers waiting for results
+ * BUSY_SPIN: lowest latency, burns a core per waiting thread
+ * YIELD: spins a little then gives the core to other threads
+ * PARK: spins, yields, then sleeps in short parks, for more threads than cores
+ *
+ * @author SeanMcGrath
+ */
+public enum WaitStrategy {
+
+    BUSY_SPIN {
+        @Override
+        public void idle(int n) {
+            Thread.onSpinWait();
+        }
+    },
+    YIELD {
+        @Override
+        public void idle(int n) {
+            if (n < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+    },
+    PARK {
+        @Override
+        public void idle(int n) {
+            if (n < SPINS) {
+                Thread.onSpinWait();
+            } else if (n < 2 * SPINS) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+        }
+    };
+
+    private static final int SPINS = 100;
+    private static final long PARK_NANOS = 10_000;
+
+    /**
+     * waits a little, the caller checks its sequence again after
+     *
+     * @param n - how many times in a row the caller has waited, 0 on the first
+     */
+    public abstract void idle(int n);
+}
@@ -0,0 +1,33 @@
+package shard;
+
+/**
+ * shards in the same process, a call is a plain method call on the shard
+ * shows the cost of sharding itself with no network in the way
+ *
+ * @author SeanMcGrath
+ */
+public class LoopbackTransport implements Transport {
+
+    private final ShardServer[] shards;
+
+    /**
+     * @param shards - shard i at index i
+     */
+    public LoopbackTransport(ShardServer... shards) {
+        this.shards = shards;
+    }
+
+    @Override
+    public int getShards() {
+        return shards.length;
+    }
+
+    @Override
+    public long call(int shard, int op, long account, long arg, int amount) {
+        return shards[shard].handle(op, account, arg, amount);
+    }
+
+    @Override
+    public void close() {
+    }
+}
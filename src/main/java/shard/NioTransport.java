@@ -0,0 +1,95 @@
+package shard;
+
+import net.Protocol;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * reaches shards over TCP, each shard served by a BankServer
+ * every calling thread gets its own blocking connection to each shard, so a call never waits on another thread's reply
+ *
+ * @author SeanMcGrath
+ */
+public class NioTransport implements Transport {
+
+    private final InetSocketAddress[] addresses;
+    private final ThreadLocal<Connection[]> connections;
+    private final ConcurrentLinkedQueue<SocketChannel> opened = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param addresses - address of shard i at index i
+     */
+    public NioTransport(InetSocketAddress... addresses) {
+        this.addresses = addresses;
+        this.connections = ThreadLocal.withInitial(() -> new Connection[addresses.length]);
+    }
+
+    private static final class Connection {
+        final SocketChannel channel;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(Protocol.REQUEST).order(ByteOrder.nativeOrder());
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    @Override
+    public int getShards() {
+        return addresses.length;
+    }
+
+    @Override
+    public long call(int shard, int op, long account, long arg, int amount) {
+        try {
+            Connection c = connection(shard);
+            ByteBuffer b = c.buffer;
+            b.clear();
+            Protocol.putRequest(b, op, account, arg, amount);
+            b.flip();
+            while (b.hasRemaining()) {
+                c.channel.write(b);
+            }
+            b.clear().limit(Protocol.REPLY);
+            while (b.hasRemaining()) {
+                if (c.channel.read(b) < 0) {
+                    throw new IOException("shard " + shard + " closed the connection");
+                }
+            }
+            return b.getLong(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Connection connection(int shard) throws IOException {
+        Connection[] mine = connections.get();
+        if (mine[shard] == null) {
+            SocketChannel channel = SocketChannel.open(addresses[shard]);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            opened.add(channel);
+            mine[shard] = new Connection(channel);
+        }
+        return mine[shard];
+    }
+
+    /**
+     * closes the connections of every thread
+     */
+    @Override
+    public void close() {
+        for (SocketChannel c : opened) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package shard;
+
+import common.Admission;
+import common.Batch;
+import common.Ledger;
+import net.Protocol;
+
+import java.nio.file.Path;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+/**
+ * ledger in front of a set of shards, every account lives on the shard owning its hash range
+ * deposits, withdrawals, balances and transfers inside one shard go straight to it
+ * a transfer across shards is a two phase commit with the router as coordinator:
+ * prepare the debit (money into escrow) and the credit, commit both if both voted yes, abort both otherwise
+ * an aborted transfer gives the escrow back, so it looks like a refused transfer to the caller
+ * a transport failure before the decision aborts both sides, an abort of a side that never prepared does nothing
+ * the coordinator keeps no log, a router that dies between the phases, or loses a commit in transit, leaves it prepared
+ * with admission set every shard has its own in-flight limit, an op shed by its shard throws
+ * RejectedExecutionException having changed nothing, a shed op of a batch is refused instead
+ *
+ * @author SeanMcGrath
+ */
+public class Router implements Ledger {
+
+    private final Transport transport;
+    private final int shards;
+    private final int accounts;
+    private final long routerId = ThreadLocalRandom.current().nextLong() << 40;//keeps transaction ids of routers apart
+    private final AtomicLong transactions = new AtomicLong();
+    private volatile Admission[] admissions;//per shard, null for no limit
+
+    /**
+     * @param transport - reaches every shard
+     * @param accounts  - accounts of the whole bank, 0 to accounts-1
+     */
+    public Router(Transport transport, int accounts) {
+        this.transport = transport;
+        this.shards = transport.getShards();
+        this.accounts = accounts;
+    }
+
+    /**
+     * murmur3 64 bit finalizer then multiply-shift, splits the hash space into shards equal ranges
+     *
+     * @param account - account number
+     * @param shards  - number of shards
+     * @return - shard owning the account
+     */
+    public static int shardOf(long account, int shards) {
+        long h = account;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) (((h >>> 32) * shards) >>> 32);
+    }
+
+    /**
+     * limits the ops in flight on every shard from now on
+     *
+     * @param perShard - makes the admission of a shard from its index, null for no limits
+     */
+    public void setAdmission(IntFunction<Admission> perShard) {
+        if (perShard == null) {
+            admissions = null;
+            return;
+        }
+        Admission[] a = new Admission[shards];
+        for (int s = 0; s < shards; s++) {
+            a[s] = perShard.apply(s);
+        }
+        admissions = a;
+    }
+
+    /**
+     * @param shard - shard index
+     * @return - its admission, null for no limit
+     */
+    public Admission getAdmission(int shard) {
+        Admission[] a = admissions;
+        return a == null ? null : a[shard];
+    }
+
+    @Override
+    public void deposit(long id, int amount) {
+        call(shardOf(id, shards), Protocol.DEPOSIT, id, 0, amount);
+    }
+
+    @Override
+    public boolean withdraw(long id, int amount) {
+        return call(shardOf(id, shards), Protocol.WITHDRAW, id, 0, amount) == 1;
+    }
+
+    @Override
+    public int getBalance(long id) {
+        return (int) call(shardOf(id, shards), Protocol.BALANCE, id, 0, 0);
+    }
+
+    /**
+     * a transfer across shards holds a slot on both for both phases, taken in shard order so blocked
+     * transfers cannot wait on each other, once admitted no phase is ever shed
+     */
+    @Override
+    public boolean transfer(long from, long to, int amount) {
+        int sf = shardOf(from, shards);
+        int st = shardOf(to, shards);
+        if (sf == st) {
+            return call(sf, Protocol.TRANSFER, from, to, amount) == 1;
+        }
+        Admission[] a = admissions;
+        if (a == null) {
+            return twoPhaseTransfer(sf, st, from, to, amount);
+        }
+        Admission first = a[Math.min(sf, st)];
+        Admission second = a[Math.max(sf, st)];
+        long t1 = first.enter();
+        if (t1 == -1) {
+            throw shed(Math.min(sf, st));
+        }
+        long t2 = second.enter();
+        if (t2 == -1) {
+            first.exit(t1);
+            throw shed(Math.max(sf, st));
+        }
+        try {
+            return twoPhaseTransfer(sf, st, from, to, amount);
+        } finally {
+            second.exit(t2);
+            first.exit(t1);
+        }
+    }
+
+    private boolean twoPhaseTransfer(int sf, int st, long from, long to, int amount) {
+        long tx = routerId | transactions.incrementAndGet();
+        boolean debit = transport.call(sf, Protocol.PREPARE_DEBIT, from, tx, amount) == 1;
+        if (!debit) {//nothing was prepared, no second phase needed
+            return false;
+        }
+        boolean credit;
+        try {
+            credit = transport.call(st, Protocol.PREPARE_CREDIT, to, tx, amount) == 1;
+            if (!credit) {
+                transport.call(sf, Protocol.ABORT, from, tx, amount);
+                return false;
+            }
+        } catch (RuntimeException e) {//the credit may or may not be prepared, abort both so the escrow comes back
+            abort(e, sf, from, tx, amount);
+            abort(e, st, to, tx, amount);
+            throw e;
+        }
+        transport.call(sf, Protocol.COMMIT, from, tx, amount);
+        transport.call(st, Protocol.COMMIT, to, tx, amount);
+        return true;
+    }
+
+    /**
+     * best effort abort after a failure, its own failure is added to the first one
+     */
+    private void abort(RuntimeException failure, int shard, long account, long tx, int amount) {
+        try {
+            transport.call(shard, Protocol.ABORT, account, tx, amount);
+        } catch (RuntimeException e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    /**
+     * sends the ops one by one to their shards, each is its own deposit or withdrawal
+     */
+    @Override
+    public int applyBatch(Batch batch) {
+        int applied = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            long id = batch.account(i);
+            int result;
+            try {
+                result = (int) call(shardOf(id, shards), Protocol.APPLY, id, 0, batch.delta(i));
+            } catch (RejectedExecutionException e) {//shed, counted by the shard's admission
+                result = Batch.REFUSED;
+            }
+            batch.setResult(i, result);
+            if (result != Batch.REFUSED) {
+                applied++;
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * one op on one shard, within the shard's in-flight limit if there is one
+     */
+    private long call(int shard, int op, long account, long arg, int amount) {
+        Admission[] a = admissions;
+        if (a == null) {
+            return transport.call(shard, op, account, arg, amount);
+        }
+        long t = a[shard].enter();
+        if (t == -1) {
+            throw shed(shard);
+        }
+        try {
+            return transport.call(shard, op, account, arg, amount);
+        } finally {
+            a[shard].exit(t);
+        }
+    }
+
+    private static RejectedExecutionException shed(int shard) {
+        return new RejectedExecutionException("shard " + shard + " is at its in-flight limit");
+    }
+
+    @Override
+    public int getAccounts() {
+        return accounts;
+    }
+
+    /**
+     * a shard's balances live in its own process, each shard snapshots on its own node
+     */
+    @Override
+    public Path snapshot(Path dir) {
+        throw new UnsupportedOperationException("snapshot each shard on its own node");
+    }
+}
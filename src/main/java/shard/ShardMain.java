@@ -0,0 +1,32 @@
+package shard;
+
+import common.Workload;
+import net.BankServer;
+
+import java.net.InetSocketAddress;
+
+/**
+ * runs one shard as its own process
+ * usage: ShardMain index shards accounts port
+ * start one per shard, then point a Router with an NioTransport at all of them
+ *
+ * @author SeanMcGrath
+ */
+public class ShardMain {
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length != 4) {
+            System.out.println("usage: ShardMain index shards accounts port");
+            return;
+        }
+        int index = Integer.parseInt(args[0]);
+        int shards = Integer.parseInt(args[1]);
+        Workload workload = new Workload();
+        workload.setAccounts(Integer.parseInt(args[2]));
+        int port = Integer.parseInt(args[3]);
+        ShardServer shard = new ShardServer(index, shards, workload, 64);
+        BankServer server = new BankServer(shard, new InetSocketAddress("127.0.0.1", port));
+        System.out.println("shard " + index + "/" + shards + " listening on " + server.getAddress());
+        Thread.currentThread().join();//serve until killed
+    }
+}
@@ -0,0 +1,121 @@
+package shard;
+
+import common.AccountStore;
+import common.Batch;
+import common.Ledger;
+import common.OffHeapAccountStore;
+import common.Workload;
+import my_version.BankManager;
+import net.Protocol;
+import net.RequestHandler;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * one shard: a seq lock BankManager holding only the accounts whose hash falls in this shard's range
+ * account numbers stay global, the store is keyed by them directly
+ * also the participant side of the router's two phase commit:
+ * a debit is taken into escrow at prepare and given back on abort, a credit is only paid out on commit
+ *
+ * @author SeanMcGrath
+ */
+public class ShardServer implements RequestHandler {
+
+    private final int index;
+    private final int shards;
+    private final Ledger ledger;
+    //batch of one op for APPLY, one per connection thread and cleared for every request
+    private final ThreadLocal<Batch> one = ThreadLocal.withInitial(() -> new Batch(1));
+    //transaction id to the prepared side of a transfer, {account, amount, op}
+    private final ConcurrentHashMap<Long, long[]> prepared = new ConcurrentHashMap<>();
+
+    /**
+     * opens every account of the shard with a random balance from $1.00-$19,999.99,
+     * drawn from the workload's BALANCES stream so an account opens as it would in an unsharded bank
+     * the shard's BankManager gets the whole bank's workload, it holds only the owned accounts
+     * and every other account number reads as missing
+     *
+     * @param index    - this shard, 0 to shards-1
+     * @param shards   - number of shards
+     * @param workload - the whole bank, account numbers run from 0 to its accounts-1
+     * @param stripes  - seq lock stripes of the shard's BankManager
+     */
+    public ShardServer(int index, int shards, Workload workload, int stripes) {
+        this.index = index;
+        this.shards = shards;
+        int accounts = workload.getAccounts();
+        int owned = 0;
+        for (int id = 0; id < accounts; id++) {
+            if (Router.shardOf(id, shards) == index) {
+                owned++;
+            }
+        }
+        OffHeapAccountStore store = new OffHeapAccountStore(Math.max(1, owned));
+        Workload.Generator opening = workload.newGenerator(Workload.BALANCES);
+        for (int id = 0; id < accounts; id++) {
+            int balance = opening.nextInt(1, 2000000);//drawn for every account, so the stream lines up
+            if (Router.shardOf(id, shards) == index) {
+                store.put(id, balance);
+            }
+        }
+        ledger = new BankManager(stripes, store, workload);
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    @Override
+    public long handle(int op, long account, long arg, int amount) {
+        switch (op) {
+            case Protocol.DEPOSIT:
+                ledger.deposit(account, amount);
+                return 0;
+            case Protocol.WITHDRAW:
+                return ledger.withdraw(account, amount) ? 1 : 0;
+            case Protocol.BALANCE:
+                return ledger.getBalance(account);
+            case Protocol.TRANSFER:
+                return ledger.transfer(account, arg, amount) ? 1 : 0;
+            case Protocol.PREPARE_DEBIT:
+                if (!ledger.withdraw(account, amount)) {
+                    return 0;
+                }
+                prepared.put(arg, new long[]{account, amount, op});
+                return 1;
+            case Protocol.PREPARE_CREDIT:
+                if (ledger.getBalance(account) == AccountStore.MISSING) {
+                    return 0;
+                }
+                prepared.put(arg, new long[]{account, amount, op});
+                return 1;
+            case Protocol.COMMIT: {
+                long[] p = prepared.remove(arg);
+                if (p != null && p[2] == Protocol.PREPARE_CREDIT) {
+                    ledger.deposit(p[0], (int) p[1]);
+                }
+                return 0;
+            }
+            case Protocol.ABORT: {
+                long[] p = prepared.remove(arg);
+                if (p != null && p[2] == Protocol.PREPARE_DEBIT) {//give the escrow back
+                    ledger.deposit(p[0], (int) p[1]);
+                }
+                return 0;
+            }
+            case Protocol.APPLY: {
+                Batch batch = one.get();
+                batch.clear();
+                batch.add(account, amount);
+                ledger.applyBatch(batch);
+                return batch.result(0);
+            }
+            default:
+                throw new IllegalArgumentException("unknown op " + op);
+        }
+    }
+}
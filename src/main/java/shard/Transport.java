@@ -0,0 +1,32 @@
+package shard;
+
+import java.io.Closeable;
+
+/**
+ * carries requests from a router to its shards, see Protocol
+ * calls are synchronous and may come from many threads at once
+ *
+ * @author SeanMcGrath
+ */
+public interface Transport extends Closeable {
+
+    /**
+     * @return - number of shards this transport reaches
+     */
+    int getShards();
+
+    /**
+     * sends one request and waits for its reply
+     *
+     * @param shard   - shard index
+     * @param op      - op from Protocol
+     * @param account - account number
+     * @param arg     - to account or transaction id, see Protocol
+     * @param amount  - amount of money
+     * @return - reply value, see Protocol
+     */
+    long call(int shard, int op, long account, long arg, int amount);
+
+    @Override
+    void close();
+}